@@ -0,0 +1,83 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of appending events from concurrent producers, while the sender serializes batches and discards them.
+ * Events dropped because the sender couldn't keep up are reported at the end of each trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AppendBenchmark {
+
+    private static final int EVENTS = 1024;
+
+    @Param({ "PLAIN", "MDC" })
+    public BenchmarkEvents kind;
+
+    private LogtailAppender appender;
+    private ILoggingEvent[] events;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        int next;
+    }
+
+    @Setup
+    public void setUp() {
+        appender = new LogtailAppender();
+        appender.setContext(new LoggerContext());
+        appender.setSourceToken("benchmark");
+        appender.setMdcFields(BenchmarkEvents.MDC_FIELDS);
+        appender.setMdcTypes(BenchmarkEvents.MDC_TYPES);
+        appender.setTransport(DiscardingTransport.class.getName());
+        appender.start();
+
+        events = kind.create(0, EVENTS).toArray(new ILoggingEvent[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop();
+        System.out.println();
+        System.out.println("Sent " + appender.getMetrics().getSentEvents() + " events, dropped " + appender.getMetrics().getDroppedEvents());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void append1Thread(Producer producer) {
+        appender.doAppend(events[producer.next++ & (EVENTS - 1)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void append8Threads(Producer producer) {
+        appender.doAppend(events[producer.next++ & (EVENTS - 1)]);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void append64Threads(Producer producer) {
+        appender.doAppend(events[producer.next++ & (EVENTS - 1)]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kinds of events the benchmarks are run with.
+ */
+public enum BenchmarkEvents {
+
+    /**
+     * Message with a couple of scalar arguments.
+     */
+    PLAIN,
+    /**
+     * Plain event with 10 MDC entries, all sent as metadata.
+     */
+    MDC,
+    /**
+     * Plain event with a throwable and its cause.
+     */
+    THROWABLE;
+
+    public static final String MDC_FIELDS = "requestId,userId,sessionId,tenant,region,route,method,status,duration,retry";
+    public static final String MDC_TYPES = "string,long,string,string,string,string,string,int,long,boolean";
+
+    private static final Logger LOGGER = new LoggerContext().getLogger("com.logtail.benchmark.OrderService");
+
+    public ILoggingEvent create(int index) {
+        LoggingEvent event = new LoggingEvent(Logger.FQCN, LOGGER, this == THROWABLE ? Level.ERROR : Level.INFO,
+                "Order {} shipped to {}", this == THROWABLE ? new IllegalStateException("Order " + index + " failed", new RuntimeException("Timeout")) : null,
+                new Object[]{ index, "Groot" });
+        event.setCallerData(new StackTraceElement[]{ new StackTraceElement("com.logtail.benchmark.OrderService", "ship", "OrderService.java", 42) });
+        if (this == MDC) {
+            Map<String, String> mdc = new HashMap<>();
+            mdc.put("requestId", "0b7a6c84-1499-4d43-b3e6-f3b40285d627");
+            mdc.put("userId", Integer.toString(index));
+            mdc.put("sessionId", "d1c9e3f2");
+            mdc.put("tenant", "better-stack");
+            mdc.put("region", "eu-central-1");
+            mdc.put("route", "/orders/{id}/ship");
+            mdc.put("method", "POST");
+            mdc.put("status", "202");
+            mdc.put("duration", "137");
+            mdc.put("retry", "false");
+            event.setMDCPropertyMap(mdc);
+        } else {
+            event.setMDCPropertyMap(new HashMap<>());
+        }
+        event.prepareForDeferredProcessing();
+        return event;
+    }
+
+    public List<ILoggingEvent> create(int index, int count) {
+        List<ILoggingEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(create(index + i));
+        }
+        return events;
+    }
+}
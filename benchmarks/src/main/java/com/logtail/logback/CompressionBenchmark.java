@@ -0,0 +1,85 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing the request body of a batch of 1000 events with each compression codec. The bytes each batch takes on
+ * the wire are reported at the end of each trial. Other codecs (eg. a zstd codec on the classpath) can be compared by
+ * passing their class names, eg. {@code -p codec=none,gzip,com.example.ZstdCodec}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    @Param({ "none", "gzip" })
+    public String codec;
+
+    @Param({ "PLAIN", "MDC", "THROWABLE" })
+    public BenchmarkEvents kind;
+
+    private LogtailAppender appender;
+    private List<ILoggingEvent> batch;
+    private CountingDiscard body;
+
+    @Setup
+    public void setUp() {
+        appender = new LogtailAppender();
+        appender.setMdcFields(BenchmarkEvents.MDC_FIELDS);
+        appender.setMdcTypes(BenchmarkEvents.MDC_TYPES);
+        appender.setCompression(codec);
+
+        batch = kind.create(0, 1000);
+        body = new CountingDiscard();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        CountingDiscard os = new CountingDiscard();
+        appender.writeBody(batch, os);
+        System.out.println();
+        System.out.println("Request body of " + batch.size() + " events: " + os.count + " bytes");
+    }
+
+    @Benchmark
+    public void writeBody() throws IOException {
+        appender.writeBody(batch, body);
+    }
+
+    /**
+     * Discards what's written, counting the bytes.
+     */
+    private static class CountingDiscard extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.logtail.logback;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Transport which serializes batches as usual but discards them instead of sending them.
+ */
+public class DiscardingTransport implements LogtailTransport {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private LogtailAppender appender;
+
+    @Override
+    public void start(LogtailAppender appender) {
+        this.appender = appender;
+    }
+
+    @Override
+    public LogtailResponse send(LogtailBatch batch) throws IOException {
+        appender.writeBody(batch, DISCARD);
+        return new LogtailResponse(null, 202);
+    }
+
+    @Override
+    public void stop() {
+    }
+}
@@ -0,0 +1,121 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cost of snapshotting an event before queueing it. The heap retained per queued event, by the original event and by
+ * its snapshot, is reported at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventSnapshotBenchmark {
+
+    private static final int EVENTS = 1024;
+    private static final int QUEUED_EVENTS = 5000;
+
+    private final Logger logger = new LoggerContext().getLogger("com.logtail.benchmark.OrderService");
+
+    private List<String> mdcFields;
+    private ILoggingEvent[] events;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < 20; i++) {
+            MDC.put("key" + i, "value-" + i);
+        }
+        mdcFields = new ArrayList<>();
+        mdcFields.add("key1");
+
+        events = new ILoggingEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = createEvent(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        long original = retainedBytesPerEvent(event -> event);
+        long snapshot = retainedBytesPerEvent(event -> new LogtailEventSnapshot(event, event.getFormattedMessage(), mdcFields));
+        MDC.clear();
+
+        System.out.println();
+        System.out.println("Retained heap per queued event: original " + original + " B, snapshot " + snapshot + " B");
+    }
+
+    @Benchmark
+    public ILoggingEvent snapshot() {
+        ILoggingEvent event = events[next++ & (EVENTS - 1)];
+        return new LogtailEventSnapshot(event, event.getFormattedMessage(), mdcFields);
+    }
+
+    private ILoggingEvent createEvent(int index) {
+        Throwable throwable = index % 10 == 0 ? new IllegalStateException("Failure " + index) : null;
+        LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Processed request {}", throwable, new Object[]{ new RequestPayload(index) });
+        event.getMDCPropertyMap();
+        return event;
+    }
+
+    private long retainedBytesPerEvent(Function<ILoggingEvent, ILoggingEvent> queued) {
+        List<ILoggingEvent> queue = new ArrayList<>(QUEUED_EVENTS);
+        long before = usedHeap();
+        for (int i = 0; i < QUEUED_EVENTS; i++) {
+            queue.add(queued.apply(createEvent(i)));
+        }
+        long retained = (usedHeap() - before) / QUEUED_EVENTS;
+        if (queue.size() != QUEUED_EVENTS) {
+            throw new IllegalStateException("Queued " + queue.size() + " events");
+        }
+        return retained;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Argument standing for a domain object, kept alive only by the queued event.
+     */
+    private static class RequestPayload {
+        private final int id;
+        private final byte[] body = new byte[2048];
+
+        RequestPayload(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return "Request#" + id;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full flush of a batch of 1000 events - serialization, compression if enabled and the HTTP call - to a stub ingest
+ * endpoint running in-process.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlushBenchmark {
+
+    @Param({ "PLAIN", "MDC", "THROWABLE" })
+    public BenchmarkEvents kind;
+
+    @Param({ "none", "gzip" })
+    public String compression;
+
+    private StubIngestServer server;
+    private LogtailAppender appender;
+    private List<ILoggingEvent> events;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new StubIngestServer();
+
+        appender = new LogtailAppender();
+        appender.setContext(new LoggerContext());
+        appender.setIngestUrl(server.getUrl());
+        appender.setSourceToken("benchmark");
+        appender.setMdcFields(BenchmarkEvents.MDC_FIELDS);
+        appender.setMdcTypes(BenchmarkEvents.MDC_TYPES);
+        appender.setCompression(compression);
+        appender.start();
+
+        // Flushes are driven by the benchmark only
+        appender.sender.stop(0);
+
+        events = kind.create(0, appender.batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop();
+        server.stop();
+    }
+
+    @Benchmark
+    public void flush() {
+        for (int i = 0; i < events.size(); i++) {
+            appender.queue.offer(events.get(i));
+        }
+        appender.flush();
+    }
+}
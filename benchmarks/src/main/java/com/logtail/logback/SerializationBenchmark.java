@@ -0,0 +1,70 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting events into maps and of serializing batches of 1000 events through the compiled serializer used
+ * when sending.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({ "PLAIN", "MDC", "THROWABLE" })
+    public BenchmarkEvents kind;
+
+    private LogtailAppender appender;
+    private List<ILoggingEvent> batch;
+    private ILoggingEvent event;
+
+    @Setup
+    public void setUp() {
+        appender = new LogtailAppender();
+        appender.setMdcFields(BenchmarkEvents.MDC_FIELDS);
+        appender.setMdcTypes(BenchmarkEvents.MDC_TYPES);
+
+        batch = kind.create(0, 1000);
+        event = batch.get(0);
+    }
+
+    @Benchmark
+    public Map<String, Object> buildPostData() {
+        return appender.buildPostData(event);
+    }
+
+    @Benchmark
+    public void writeBatch() throws IOException {
+        appender.writeBatch(batch, DISCARD);
+    }
+}
@@ -0,0 +1,43 @@
+package com.logtail.logback;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process stub of the Better Stack ingest endpoint, which reads and accepts every request.
+ */
+public class StubIngestServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    public StubIngestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] buffer = new byte[64 * 1024];
+                while (body.read(buffer) >= 0) {
+                }
+                exchange.sendResponseHeaders(202, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,24 @@
+package com.logtail.logback;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compression applied to the body of ingest requests.
+ * <p>
+ * Implementations must have a public no-arg constructor, so that they can be configured by class name, eg. a zstd
+ * codec backed by <i>zstd-jni</i>.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Value of the <i>Content-Encoding</i> header, eg. "gzip" or "zstd".
+     */
+    String getContentEncoding();
+
+    /**
+     * Wraps the request body stream. Closing the returned stream must finish the compressed data and close the
+     * underlying stream.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+}
@@ -0,0 +1,21 @@
+package com.logtail.logback;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of ingest requests, using the JDK built-in deflater.
+ */
+public class GzipCompressionCodec implements CompressionCodec {
+
+    @Override
+    public String getContentEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 8192);
+    }
+}
@@ -0,0 +1,250 @@
+package com.logtail.logback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport based on the Java 11 {@link HttpClient}. A single client is kept for the lifetime of the appender, so
+ * connections are reused between batches and multiplexed over HTTP/2 where the endpoint supports it.
+ * <p>
+ * When streaming, the calling thread serializes the batch while the client's threads send it, the body being handed
+ * over through a bounded {@link BodyPipe}.
+ * <p>
+ * Shipped in the Java 11 part of the multi-release jar, select it with <i>&lt;transport&gt;httpclient&lt;/transport&gt;</i>.
+ */
+public class HttpClientTransport implements LogtailTransport {
+
+    protected LogtailAppender appender;
+    protected HttpClient client;
+    protected URI ingestUri;
+
+    @Override
+    public void start(LogtailAppender appender) {
+        this.appender = appender;
+        this.ingestUri = URI.create(appender.ingestUrl);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(appender.connectTimeout))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    @Override
+    public LogtailResponse send(LogtailBatch batch) throws IOException {
+        return appender.streaming ? sendStreamed(batch) : sendBuffered(batch);
+    }
+
+    @Override
+    public void stop() {
+        // HttpClient has no explicit close before Java 21, its connections are released once it is unreachable. It is
+        // kept until then, for batches still sent by an abandoned drain.
+    }
+
+    protected LogtailResponse sendBuffered(LogtailBatch batch) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(batch.size() * 256);
+        appender.writeBody(batch, body);
+
+        try {
+            HttpResponse<String> response = client.send(buildRequest(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray())), HttpResponse.BodyHandlers.ofString());
+            return new LogtailResponse(response.body(), response.statusCode());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending logs to Better Stack");
+        }
+    }
+
+    protected LogtailResponse sendStreamed(LogtailBatch batch) throws IOException {
+        BodyPipe pipe = new BodyPipe();
+        CompletableFuture<HttpResponse<String>> future = client.sendAsync(buildRequest(HttpRequest.BodyPublishers.ofInputStream(pipe::getInput)), HttpResponse.BodyHandlers.ofString());
+        // Unblocks the writer below if the request fails before the whole body is consumed
+        future.whenComplete((response, e) -> pipe.abort());
+
+        try {
+            appender.writeBody(batch, pipe.getOutput());
+            pipe.finish();
+        } catch (IOException | RuntimeException e) {
+            // Unless the body was cut short by an early response, eg. 413, the request fails with the writer's cause
+            pipe.abort();
+            if (!future.isDone() || future.isCompletedExceptionally()) {
+                future.cancel(true);
+                throw e;
+            }
+        }
+
+        try {
+            HttpResponse<String> response = future.get();
+            return new LogtailResponse(response.body(), response.statusCode());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending logs to Better Stack");
+        }
+    }
+
+    protected HttpRequest buildRequest(HttpRequest.BodyPublisher body) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(ingestUri)
+                .timeout(Duration.ofMillis(appender.readTimeout))
+                .POST(body);
+        for (Map.Entry<String, String> header : appender.getRequestHeaders().entrySet()) {
+            request.header(header.getKey(), header.getValue());
+        }
+        return request.build();
+    }
+
+    /**
+     * Hands a request body over from the thread serializing it to the client's threads, in chunks of
+     * <i>CHUNK_SIZE</i> bytes, at most <i>CHUNKS</i> of them ahead of the client. Unlike piped streams, neither side is
+     * bound to a thread, and aborting the pipe fails both of them rather than leaving one blocked.
+     */
+    protected static class BodyPipe {
+
+        private static final int CHUNK_SIZE = 16 * 1024;
+        private static final int CHUNKS = 4;
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS + 1);
+        private volatile boolean aborted = false;
+
+        private final ChunkOutputStream output = new ChunkOutputStream();
+
+        private final InputStream input = new InputStream() {
+            private byte[] chunk;
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (!nextChunk())
+                    return -1;
+                return chunk[position++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+                if (!nextChunk())
+                    return -1;
+
+                int n = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            private boolean nextChunk() throws IOException {
+                while (chunk != END && (chunk == null || position == chunk.length)) {
+                    chunk = take();
+                    position = 0;
+                }
+                return chunk != END;
+            }
+        };
+
+        public OutputStream getOutput() {
+            return output;
+        }
+
+        public InputStream getInput() {
+            return input;
+        }
+
+        /**
+         * Ends the body once it's completely written. Closing the output doesn't, so that a writer failing midway
+         * doesn't send a truncated body.
+         */
+        public void finish() throws IOException {
+            output.flushChunk();
+            put(END);
+        }
+
+        /**
+         * Fails the writer and the reader, both of which check for it at least every 100 ms while blocked.
+         */
+        public void abort() {
+            aborted = true;
+            chunks.clear();
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            try {
+                while (!aborted) {
+                    if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS))
+                        return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while streaming logs to Better Stack");
+            }
+            throw new IOException("Request body is no longer consumed");
+        }
+
+        private byte[] take() throws IOException {
+            try {
+                while (!aborted) {
+                    byte[] chunk = chunks.poll(100, TimeUnit.MILLISECONDS);
+                    if (chunk != null)
+                        return chunk;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while streaming logs to Better Stack");
+            }
+            throw new IOException("Request body was aborted");
+        }
+
+        private class ChunkOutputStream extends OutputStream {
+            private byte[] buffer = new byte[CHUNK_SIZE];
+            private int count = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                buffer[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (count == buffer.length) {
+                        flushChunk();
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            void flushChunk() throws IOException {
+                if (count == 0)
+                    return;
+
+                put(count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+                buffer = new byte[CHUNK_SIZE];
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.logtail.logback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Default transport, based on {@link HttpURLConnection} and available on every Java version. Responses are read to
+ * their end and closed rather than disconnected, so that the JDK keep-alive cache reuses connections between requests.
+ */
+public class HttpURLConnectionTransport implements LogtailTransport {
+
+    protected LogtailAppender appender;
+
+    @Override
+    public void start(LogtailAppender appender) {
+        this.appender = appender;
+    }
+
+    @Override
+    public LogtailResponse send(LogtailBatch batch) throws IOException {
+        return callHttpURLConnection(batch);
+    }
+
+    @Override
+    public void stop() {
+        // Nothing to release, connections are pooled by the JDK keep-alive cache
+    }
+
+    protected LogtailResponse callHttpURLConnection(LogtailBatch batch) throws IOException {
+        HttpURLConnection connection = getHttpURLConnection();
+
+        ByteArrayOutputStream body = null;
+        if (appender.streaming) {
+            // Events are serialized one by one straight into the request body
+            connection.setChunkedStreamingMode(0);
+        } else {
+            body = new ByteArrayOutputStream(batch.size() * 256);
+            appender.writeBody(batch, body);
+            connection.setFixedLengthStreamingMode(body.size());
+        }
+
+        try {
+            connection.connect();
+        } catch (Exception e) {
+            appender.logger.error("Error trying to call Better Stack : {}", e.getMessage(), e);
+        }
+
+        try (OutputStream os = connection.getOutputStream()) {
+            if (appender.streaming) {
+                appender.writeBody(batch, os);
+            } else {
+                body.writeTo(os);
+            }
+        }
+
+        LogtailResponse response = new LogtailResponse(connection.getResponseMessage(), connection.getResponseCode());
+        discardResponseBody(connection);
+
+        return response;
+    }
+
+    /**
+     * Reads the response body to its end and closes it, which hands the connection back to the keep-alive cache.
+     * A connection whose response couldn't be read is closed instead.
+     */
+    protected void discardResponseBody(HttpURLConnection connection) {
+        try (InputStream body = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (body == null)
+                return;
+            byte[] buffer = new byte[1024];
+            while (body.read(buffer) != -1) {
+                // Discarded, only the status is used
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+        }
+    }
+
+    protected HttpURLConnection getHttpURLConnection() throws IOException {
+        HttpURLConnection httpURLConnection = (HttpURLConnection) new URL(appender.ingestUrl).openConnection();
+        httpURLConnection.setDoOutput(true);
+        httpURLConnection.setDoInput(true);
+        for (Map.Entry<String, String> header : appender.getRequestHeaders().entrySet()) {
+            httpURLConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        httpURLConnection.setRequestMethod("POST");
+        httpURLConnection.setConnectTimeout(appender.connectTimeout);
+        httpURLConnection.setReadTimeout(appender.readTimeout);
+        return httpURLConnection;
+    }
+}
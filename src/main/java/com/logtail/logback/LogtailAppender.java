@@ -1,11 +1,15 @@
 package com.logtail.logback;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
@@ -13,20 +17,26 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
@@ -40,28 +50,85 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
     protected List<String> mdcTypes = new ArrayList<>();
 
     protected int maxQueueSize = 100000;
+    protected long maxQueueBytes = 0;
+    protected LogtailOverflowPolicy overflowPolicy = LogtailOverflowPolicy.DROP_NEWEST;
+    protected int overflowBlockTimeout = 100;
     protected int batchSize = 1000;
     protected int batchInterval = 3000;
+    protected boolean adaptiveBatching = false;
+    protected int minBatchSize = 100;
+    protected int maxBatchSize = 5000;
+    protected int minBatchInterval = 250;
+    protected int maxBatchInterval = 10000;
+    protected Level priorityLevel;
+    protected int priorityQueueSize = 10000;
+    protected int priorityBatchInterval = 200;
     protected int connectTimeout = 5000;
     protected int readTimeout = 10000;
     protected int maxRetries = 5;
     protected int retrySleepMilliseconds = 300;
+    protected int maxRetryDelay = 30000;
+    protected int circuitBreakerFailureThreshold = 5;
+    protected int circuitBreakerResetTimeout = 30000;
+    protected int maxInFlightBatches = 1;
+    protected int shutdownTimeout = 0;
+    protected int catchUpThreshold = 0;
+    protected long catchUpMaxBatchBytes = 4 * 1024 * 1024;
+    protected int catchUpInFlightBatches = 4;
+    protected boolean shutdownHook = false;
+    protected int serializationThreads = 1;
+    protected int stringCacheSize = 4096;
+    protected int throwableDeduplicationWindow = 0;
+    protected int maxStackTraceFrames = 0;
+    protected String rateLimits;
+    protected String samplingRatios;
+    protected int rateLimitSummaryInterval = 60000;
+    protected int burstCollapseWindow = 0;
+    protected int burstCollapseThreshold = 10;
+    protected int burstCollapseSamples = 5;
+    protected String spilloverDirectory;
+    protected long spilloverMaxBytes = 256L * 1024 * 1024;
+    protected int spilloverSegmentSize = 16 * 1024 * 1024;
+    protected int spilloverHighWaterMark = 0;
+    protected boolean snapshotEvents = false;
+    protected boolean jmx = false;
+    protected boolean streaming = false;
+    protected CompressionCodec compressionCodec;
+    protected String format = "json";
+    protected LogtailTransport transport = new HttpURLConnectionTransport();
 
     protected PatternLayoutEncoder encoder;
 
     // Non-customizable variables
-    protected Vector<ILoggingEvent> batch = new Vector<>();
-    protected AtomicBoolean isFlushing = new AtomicBoolean(false);
-    protected boolean mustReflush = false;
-    protected boolean warnAboutMaxQueueSize = true;
+    protected static final int SERIALIZATION_SLICE_SIZE = 128;
+    // Placeholder until start() allocates it, once maxQueueSize is configured
+    protected LogtailRingBuffer<ILoggingEvent> queue = new LogtailRingBuffer<>(1);
+    protected LongAdder queueBytes = new LongAdder();
+    protected LogtailRingBuffer<ILoggingEvent> priorityQueue;
+    protected LogtailCircuitBreaker circuitBreaker = new LogtailCircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerResetTimeout);
+    protected volatile boolean warnAboutMaxQueueSize = true;
+    protected volatile boolean warnAboutSpilloverSize = true;
+    protected LogtailMetrics metrics = new LogtailMetrics(this);
+    protected LogtailFlusher flusher = new LogtailFlusher(this);
+    protected volatile LogtailBatchController batchController;
+    protected volatile LogtailCatchUp catchUp;
 
     // Utils
-    protected ScheduledExecutorService scheduledExecutorService;
-    protected ScheduledFuture<?> scheduledFuture;
+    protected volatile LogtailSenderLoop sender;
+    protected volatile LogtailDrain drain;
+    protected Thread shutdownHookThread;
+    protected ExecutorService senderExecutorService;
+    protected ExecutorService serializerExecutorService;
+    protected volatile LogtailSpillover spillover;
     protected ObjectMapper dataMapper;
+    protected volatile LogtailEventSerializer eventSerializer;
+    protected volatile LogtailMdcSchema mdcSchema;
+    protected LogtailStringCache stringCache = new LogtailStringCache(stringCacheSize);
+    protected LogtailThrowableDeduplicator throwableDeduplicator;
+    protected volatile LogtailRateLimiter rateLimiter;
+    protected volatile LogtailBurstCollapser burstCollapser;
+    protected ObjectName metricsObjectName;
     protected Logger logger;
-    protected int retrySize = 0;
-    protected int retries = 0;
     protected boolean disabled = false;
 
     protected ThreadFactory threadFactory = r -> {
@@ -78,9 +145,6 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
                 .setSerializationInclusion(JsonInclude.Include.NON_NULL)
                 .setPropertyNamingStrategy(PropertyNamingStrategies.UPPER_CAMEL_CASE)
                 .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-
-        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(threadFactory);
-        scheduledFuture = scheduledExecutorService.scheduleWithFixedDelay(new LogtailSender(), batchInterval, batchInterval, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -100,24 +164,237 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
             return;
         }
 
-        if (batch.size() < maxQueueSize) {
-            batch.add(event);
+        LogtailRateLimiter limiter = rateLimiter;
+        if (limiter != null && !limiter.tryAcquire(event))
+            return;
+
+        LogtailBurstCollapser collapser = burstCollapser;
+        if (collapser != null && collapser.collapse(event)) {
+            metrics.onDropped(LogtailMetrics.DropReason.COLLAPSED, 1);
+            return;
+        }
+
+        if (snapshotEvents) {
+            event = new LogtailEventSnapshot(event, generateLogMessage(event), mdcFields);
+        }
+
+        // Priority events have their own capacity, they only compete for the regular queue when it's exhausted
+        LogtailRingBuffer<ILoggingEvent> lane = getPriorityLane(event);
+        if (lane != null && enqueuePriority(lane, event))
+            return;
+
+        // Once spilling started, events keep going to disk until it is replayed, in order to preserve ordering. When
+        // the spillover is full, the queue and its overflow policy take over.
+        LogtailSpillover disk = spillover;
+        boolean spilling = disk != null && (disk.hasPendingRecords() || queue.size() >= getSpilloverHighWaterMark());
+        if (!spilling || !spill(event)) {
+            if (overflowPolicy == LogtailOverflowPolicy.SHED_LOWEST_LEVEL && isShed(event)) {
+                metrics.onDropped(LogtailMetrics.DropReason.SHED, 1);
+                warnAboutMaxQueueSize("Messages of low levels will be dropped first.");
+            } else if (!enqueue(event) && (spilling || disk == null || !spill(event)) && !enqueueOverflowing(event)) {
+                warnAboutMaxQueueSize("New messages will be dropped.");
+            }
+        }
+
+        LogtailSenderLoop loop = sender;
+        if (loop != null && loop.isParked() && queue.size() >= getEffectiveBatchSize() && flusher.retryBatches.isEmpty()) {
+            loop.wake();
+        }
+    }
+
+    /**
+     * Priority queue of the event, if the priority lane is enabled and the event's level qualifies.
+     *
+     * @return the priority queue, or <i>null</i> if the event goes to the regular queue
+     */
+    protected LogtailRingBuffer<ILoggingEvent> getPriorityLane(ILoggingEvent event) {
+        LogtailRingBuffer<ILoggingEvent> lane = priorityQueue;
+        Level priority = priorityLevel;
+        return lane != null && priority != null && event.getLevel().isGreaterOrEqual(priority) ? lane : null;
+    }
+
+    /**
+     * Adds the event to the priority queue, and makes sure the sender sends it within <i>priorityBatchInterval</i>.
+     *
+     * @return <i>false</i> if the priority queue is full
+     */
+    protected boolean enqueuePriority(LogtailRingBuffer<ILoggingEvent> lane, ILoggingEvent event) {
+        if (!lane.offer(event))
+            return false;
+
+        queueBytes.add(estimateSize(event));
+        metrics.onEnqueued();
+        LogtailSenderLoop loop = sender;
+        if (loop != null && loop.isParked() && loop.getParkedUntilNanos() - System.nanoTime() > TimeUnit.MILLISECONDS.toNanos(priorityBatchInterval)) {
+            loop.wake();
+        }
+        return true;
+    }
+
+    /**
+     * Wakes up the sender thread, so that it re-evaluates whether there is something to send.
+     */
+    protected void wakeSender() {
+        LogtailSenderLoop loop = sender;
+        if (loop != null) {
+            loop.wake();
+        }
+    }
+
+    /**
+     * Adds the event to the in-memory queue, unless either the message count or the byte limit is reached. Events of
+     * batches waiting for a retry count towards both.
+     *
+     * @return <i>false</i> if the queue is full
+     */
+    protected boolean enqueue(ILoggingEvent event) {
+        long size = estimateSize(event);
+        if (maxQueueBytes > 0 && queueBytes.sum() + size > maxQueueBytes)
+            return false;
+
+        int retrying = flusher.retryEvents.get();
+        if (retrying > 0 && queue.size() + retrying >= maxQueueSize)
+            return false;
+
+        if (!queue.offer(event))
+            return false;
+
+        queueBytes.add(size);
+        metrics.onEnqueued();
+        return true;
+    }
+
+    /**
+     * Applies the overflow policy to an event which didn't fit in the queue, nor the spillover.
+     *
+     * @return <i>false</i> if the event was dropped
+     */
+    protected boolean enqueueOverflowing(ILoggingEvent event) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                // Bounded, as the sender and other logging threads compete for the room made
+                for (int attempt = 0; attempt < 16; attempt++) {
+                    ILoggingEvent oldest = queue.poll();
+                    if (oldest != null) {
+                        queueBytes.add(-estimateSize(oldest));
+                        metrics.onDropped(LogtailMetrics.DropReason.EVICTED, 1);
+                        warnAboutMaxQueueSize("Oldest messages will be dropped.");
+                    }
+                    if (enqueue(event))
+                        return true;
+                }
+                break;
+
+            case BLOCK:
+                // The sender can't make room for itself, nor while Better Stack is unreachable
+                LogtailSenderLoop loop = sender;
+                if ((loop != null && loop.isCurrentThread()) || !circuitBreaker.isCallPermitted())
+                    break;
+                if (awaitEnqueue(event))
+                    return true;
+                metrics.onDropped(LogtailMetrics.DropReason.BLOCK_TIMEOUT, 1);
+                return false;
+
+            default:
+                break;
+        }
+
+        metrics.onDropped(LogtailMetrics.DropReason.QUEUE_FULL, 1);
+        return false;
+    }
+
+    /**
+     * Waits up to <i>overflowBlockTimeout</i> for the sender to make room for the event. Polls the queue with a
+     * growing pause rather than waiting on a lock, so that the sender never has to signal logging threads.
+     *
+     * @return <i>false</i> if there was no room before the timeout
+     */
+    protected boolean awaitEnqueue(ILoggingEvent event) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(overflowBlockTimeout);
+        long pause = TimeUnit.MICROSECONDS.toNanos(50);
+        boolean enqueued = false;
+
+        wakeSender();
+        while (isStarted() && !Thread.currentThread().isInterrupted()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                break;
+            LockSupport.parkNanos(Math.min(pause, remaining));
+            pause = Math.min(pause * 2, TimeUnit.MILLISECONDS.toNanos(1));
+            if (enqueue(event)) {
+                enqueued = true;
+                break;
+            }
+        }
+
+        metrics.onBlocked(System.nanoTime() - start);
+        return enqueued;
+    }
+
+    /**
+     * Whether the event's level is shed at the current queue fill, the larger of its size and bytes ratios.
+     */
+    protected boolean isShed(ILoggingEvent event) {
+        double fill = (double) (queue.size() + flusher.retryEvents.get()) / maxQueueSize;
+        if (maxQueueBytes > 0) {
+            fill = Math.max(fill, (double) queueBytes.sum() / maxQueueBytes);
+        }
+
+        switch (event.getLevel().toInt()) {
+            case Level.TRACE_INT:
+                return fill >= 0.5;
+            case Level.DEBUG_INT:
+                return fill >= 0.7;
+            case Level.INFO_INT:
+                return fill >= 0.85;
+            case Level.WARN_INT:
+                return fill >= 0.95;
+            default:
+                return false;
         }
+    }
 
-        if (warnAboutMaxQueueSize && batch.size() == maxQueueSize) {
+    protected void warnAboutMaxQueueSize(String consequence) {
+        if (warnAboutMaxQueueSize) {
             this.warnAboutMaxQueueSize = false;
             // Prevent potential dead-lock, when a blocking logger is configured - avoid using logger directly in append
             startThread("logtail-error-logger", () -> {
-                logger.error("Maximum number of messages in queue reached ({}). New messages will be dropped.", maxQueueSize);
+                logger.error("Maximum number of messages in queue reached ({} messages, {} bytes). {}", maxQueueSize, maxQueueBytes, consequence);
             });
         }
+    }
+
+    /**
+     * Cheap estimate of the heap retained by a queued event, computed only from values which don't change while the
+     * event is queued. It is computed again when the event leaves the queue.
+     */
+    protected long estimateSize(ILoggingEvent event) {
+        // Event object, timestamp, level, thread and logger names
+        long size = 256;
+
+        String message = event.getMessage();
+        if (message != null) {
+            size += 2L * message.length();
+        }
 
-        if (batch.size() >= batchSize) {
-            if (isFlushing.get())
-                return;
+        Object[] arguments = event.getArgumentArray();
+        if (arguments != null) {
+            for (Object argument : arguments) {
+                size += argument instanceof String ? 48 + 2L * ((String) argument).length() : 32;
+            }
+        }
+
+        Map<String, String> mdc = event.getMDCPropertyMap();
+        if (mdc != null) {
+            size += 96L * mdc.size();
+        }
 
-            startThread("logtail-appender-flush", new LogtailSender());
+        for (IThrowableProxy throwable = event.getThrowableProxy(); throwable != null; throwable = throwable.getCause()) {
+            size += 128 + 160L * throwable.getStackTraceElementProxyArray().length;
         }
+
+        return size;
     }
 
     protected void startThread(String threadName, Runnable runnable) {
@@ -126,139 +403,330 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         thread.start();
     }
 
+    /**
+     * Sends the queued logs, see {@link LogtailFlusher#flush()}.
+     */
     protected void flush() {
-        if (batch.isEmpty())
-            return;
+        flusher.flush();
+    }
 
-        // Guaranteed to not be running concurrently
-        if (isFlushing.getAndSet(true))
+    /**
+     * Queues a summary event of the events dropped by rate limits and sampling since the previous summary, once per
+     * <i>rateLimitSummaryInterval</i> unless forced.
+     */
+    protected void reportSuppressedEvents(boolean force) {
+        LogtailRateLimiter limiter = rateLimiter;
+        if (limiter == null || !(limiter.isSummaryDue() || force))
             return;
 
-        mustReflush = false;
-
-        int flushedSize = batch.size();
-        if (flushedSize > batchSize) {
-            flushedSize = batchSize;
-            mustReflush = true;
-        }
-        if (retries > 0 && flushedSize > retrySize) {
-            flushedSize = retrySize;
-            mustReflush = true;
+        for (Object[] summary : limiter.pollSummary()) {
+            LoggingEvent event = new LoggingEvent();
+            event.setLoggerName(LogtailAppender.class.getName());
+            event.setThreadName(Thread.currentThread().getName());
+            event.setLevel(Level.WARN);
+            event.setTimeStamp(System.currentTimeMillis());
+            event.setMessage((String) summary[0]);
+            event.setArgumentArray(Arrays.copyOfRange(summary, 1, summary.length));
+            event.setMDCPropertyMap(Collections.emptyMap());
+            // Not subject to rate limiting, nor dropped as the appender's own logs
+            enqueue(event);
         }
+    }
 
-        if (!flushLogs(flushedSize)) {
-            mustReflush = true;
+    /**
+     * Warns about MDC values sent as strings, from the sender rather than the logging thread which serialized them.
+     */
+    protected void reportMdcConversionFailures() {
+        LogtailMdcSchema schema = mdcSchema;
+        if (schema != null) {
+            schema.reportConversionFailures(logger);
         }
+    }
 
-        isFlushing.set(false);
+    /**
+     * Queues an event for each burst of collapsed events whose window is over.
+     *
+     * @param all
+     *            whether to queue all bursts, even those still open
+     */
+    protected void sendCollapsedBursts(boolean all) {
+        LogtailBurstCollapser collapser = burstCollapser;
+        if (collapser == null)
+            return;
 
-        if (mustReflush || batch.size() >= batchSize)
-            flush();
+        collapser.poll(System.currentTimeMillis(), all, burst -> {
+            // Not encoded, the sender thread can't provide the caller data of the last occurrence to the pattern
+            LogtailCollapsedEvent event = new LogtailCollapsedEvent(burst, burst.getLastEvent().getFormattedMessage(), mdcFields);
+            // Same lane as the collapsed events would have taken, eg. a burst of errors isn't held back by the interval
+            LogtailRingBuffer<ILoggingEvent> lane = getPriorityLane(event);
+            if (lane == null || !enqueuePriority(lane, event)) {
+                enqueue(event);
+            }
+        });
     }
 
-    protected boolean flushLogs(int flushedSize) {
-        retrySize = flushedSize;
+    /**
+     * Writes the event to the disk spillover.
+     *
+     * @return <i>false</i> if the event was dropped
+     */
+    protected boolean spill(ILoggingEvent event) {
+        LogtailSpillover disk = spillover;
+        if (disk == null)
+            return false;
 
         try {
-            if (retries > maxRetries) {
-                synchronized (batch) {
-                    batch.subList(0, flushedSize).clear();
-                }
-                logger.error("Dropped batch of {} logs.", flushedSize);
-                warnAboutMaxQueueSize = true;
-                retries = 0;
-
+            if (disk.write(serializeEvent(event)))
                 return true;
-            }
+        } catch (IOException e) {
+            // Handled as a full spillover
+        }
 
-            if (retries > 0) {
-                logger.info("Retrying to send {} logs to Better Stack ({} / {})", flushedSize, retries, maxRetries);
-                try {
-                    TimeUnit.MILLISECONDS.sleep(retrySleepMilliseconds);
-                } catch (InterruptedException e) {
-                    // Continue
-                }
-            }
+        if (warnAboutSpilloverSize) {
+            warnAboutSpilloverSize = false;
+            // Prevent potential dead-lock, when a blocking logger is configured - avoid using logger directly in append
+            startThread("logtail-error-logger", () -> {
+                logger.error("Maximum size of spillover reached ({} bytes). New messages will be dropped.", spilloverMaxBytes);
+            });
+        }
+        return false;
+    }
+
+    protected int getSpilloverHighWaterMark() {
+        // At least 1, so that tiny queues don't spill every message over
+        return spilloverHighWaterMark > 0 ? spilloverHighWaterMark : Math.max(1, (int) (maxQueueSize * 8L / 10));
+    }
 
-            LogtailResponse response = callHttpURLConnection(flushedSize);
+    /**
+     * Batch size in effect, adjusted by the adaptive batching and the catch-up if enabled.
+     */
+    protected int getEffectiveBatchSize() {
+        LogtailBatchController controller = batchController;
+        int size = Math.max(controller != null ? controller.getBatchSize() : batchSize, flusher.catchUpBatchSize);
+        // Fewer round trips to drain the queue before the shutdown deadline
+        return isDraining() ? Math.max(size, maxBatchSize) : size;
+    }
 
-            if (response.getStatus() >= 300 || response.getStatus() < 200) {
-                logger.error("Error calling Better Stack : {} ({})", response.getError(), response.getStatus());
-                retries++;
+    /**
+     * Batch interval in effect [ms], adjusted by the adaptive batching if enabled.
+     */
+    protected int getEffectiveBatchInterval() {
+        LogtailBatchController controller = batchController;
+        return controller != null ? controller.getBatchInterval() : batchInterval;
+    }
 
-                return false;
-            }
+    protected LogtailResponse callIngest(LogtailBatch batch) throws IOException {
+        return transport.send(batch);
+    }
 
-            synchronized (batch) {
-                batch.subList(0, flushedSize).clear();
-            }
-            warnAboutMaxQueueSize = true;
-            retries = 0;
+    /**
+     * HTTP headers sent with every ingest request.
+     */
+    protected Map<String, String> getRequestHeaders() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("User-Agent", this.userAgent);
+        headers.put("Accept", "application/json");
+        headers.put("Content-Type", isMessagePack() ? "application/msgpack" : "application/json");
+        headers.put("Charset", "UTF-8");
+        if (this.compressionCodec != null) {
+            headers.put("Content-Encoding", this.compressionCodec.getContentEncoding());
+        }
+        headers.put("Authorization", String.format("Bearer %s", this.sourceToken));
+        return headers;
+    }
 
-            return true;
+    /**
+     * Writes the request body, compressed by the configured codec if any. The stream is closed afterwards.
+     */
+    protected void writeBody(LogtailBatch batch, OutputStream os) throws IOException {
+        long start = System.nanoTime();
+        LogtailCountingOutputStream body = new LogtailCountingOutputStream(os);
+        LogtailCountingOutputStream content = compressionCodec != null ? new LogtailCountingOutputStream(compressionCodec.compress(body)) : body;
+        try (OutputStream target = content) {
+            writeBatch(batch, target);
+        }
+        batch.setBodyBytes(body.getCount());
+        batch.setUncompressedBodyBytes(content.getCount());
+        metrics.onSerialized(System.nanoTime() - start);
+    }
 
-        } catch (ConcurrentModificationException e) {
-            logger.error("Error clearing {} logs from batch, will retry immediately.", flushedSize, e);
-            retries = maxRetries; // No point in retrying to send the data
+    protected void writeBody(List<ILoggingEvent> events, OutputStream os) throws IOException {
+        writeBody(new LogtailBatch(events), os);
+    }
 
-        } catch (JsonProcessingException e) {
-            logger.error("Error processing JSON data : {}", e.getMessage(), e);
-            retries = maxRetries; // No point in retrying when batch cannot be processed into JSON
+    /**
+     * Serializes the batch as an array in the configured format into the given stream, one event at a time, so that
+     * at most one event is materialized in memory.
+     */
+    protected void writeBatch(LogtailBatch batch, OutputStream os) throws IOException {
+        if (serializerExecutorService != null && batch.getEvents().size() >= 2 * SERIALIZATION_SLICE_SIZE) {
+            writeBatchInParallel(batch, os);
+            return;
+        }
 
-        } catch (Exception e) {
-            logger.error("Error trying to call Better Stack : {}", e.getMessage(), e);
+        if (isMessagePack()) {
+            MessagePackEncoder encoder = new MessagePackEncoder(os, this.dataMapper);
+            encoder.writeArrayHeader(batch.size());
+            for (byte[] record : batch.getRecords()) {
+                encoder.writeRaw(record);
+            }
+            for (int i = 0; i < batch.getEvents().size(); i++) {
+                encoder.writeMap(buildPostData(batch, i));
+            }
+            encoder.flush();
+            return;
         }
 
-        retries++;
+        LogtailEventSerializer serializer = getEventSerializer();
+
+        try (JsonGenerator generator = this.dataMapper.getFactory().createGenerator(os)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            List<byte[]> records = batch.getRecords();
+            List<ILoggingEvent> events = batch.getEvents();
+            if (!records.isEmpty()) {
+                // Spilled over records are JSON already, copied as they are rather than decoded for the generator
+                generator.flush();
+                for (int i = 0; i < records.size(); i++) {
+                    if (i > 0) {
+                        os.write(',');
+                    }
+                    os.write(records.get(i));
+                }
+                if (!events.isEmpty()) {
+                    generator.writeRaw(',');
+                }
+            }
+            for (int i = 0; i < events.size(); i++) {
+                serializer.write(batch, i, generator);
+            }
+            generator.writeEndArray();
+        }
+    }
 
-        return false;
+    protected void writeBatch(List<ILoggingEvent> events, OutputStream os) throws IOException {
+        writeBatch(new LogtailBatch(events), os);
     }
 
-    protected LogtailResponse callHttpURLConnection(int flushedSize) throws IOException {
-        HttpURLConnection connection = getHttpURLConnection();
+    /**
+     * Serializes slices of the batch's events in parallel into byte chunks, which are then written in order. The
+     * sending thread serializes the first slice itself and writes each chunk as soon as it's ready.
+     */
+    protected void writeBatchInParallel(LogtailBatch batch, OutputStream os) throws IOException {
+        List<ILoggingEvent> events = batch.getEvents();
+        int slices = Math.min(serializationThreads, events.size() / SERIALIZATION_SLICE_SIZE);
+        int sliceSize = (events.size() + slices - 1) / slices;
+
+        List<FutureTask<byte[]>> chunks = new ArrayList<>(slices);
+        for (int from = sliceSize; from < events.size(); from += sliceSize) {
+            int sliceFrom = from;
+            int sliceTo = Math.min(from + sliceSize, events.size());
+            FutureTask<byte[]> chunk = new FutureTask<>(() -> serializeEvents(batch, sliceFrom, sliceTo));
+            try {
+                serializerExecutorService.execute(chunk);
+            } catch (RejectedExecutionException e) {
+                chunk.run();
+            }
+            chunks.add(chunk);
+        }
+        byte[] first = serializeEvents(batch, 0, Math.min(sliceSize, events.size()));
+
+        boolean messagePack = isMessagePack();
+        if (messagePack) {
+            MessagePackEncoder encoder = new MessagePackEncoder(os, this.dataMapper);
+            encoder.writeArrayHeader(batch.size());
+            encoder.flush();
+        } else {
+            os.write('[');
+        }
+        for (byte[] record : batch.getRecords()) {
+            os.write(record);
+            if (!messagePack) {
+                os.write(',');
+            }
+        }
+        os.write(first);
+        for (FutureTask<byte[]> chunk : chunks) {
+            if (!messagePack) {
+                os.write(',');
+            }
+            os.write(awaitChunk(chunk));
+        }
+        if (!messagePack) {
+            os.write(']');
+        }
+    }
 
+    private byte[] awaitChunk(FutureTask<byte[]> chunk) throws IOException {
         try {
-            connection.connect();
-        } catch (Exception e) {
-            logger.error("Error trying to call Better Stack : {}", e.getMessage(), e);
+            return chunk.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while serializing logs");
         }
+    }
 
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = batchToJson(flushedSize).getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-            os.flush();
+    /**
+     * Serializes the batch's events between the given indexes one after another in the configured format, JSON
+     * values being separated by commas.
+     */
+    protected byte[] serializeEvents(LogtailBatch batch, int from, int to) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream((to - from) * 256);
+        if (isMessagePack()) {
+            MessagePackEncoder encoder = new MessagePackEncoder(os, this.dataMapper);
+            for (int i = from; i < to; i++) {
+                encoder.writeMap(buildPostData(batch, i));
+            }
+            encoder.flush();
+            return os.toByteArray();
         }
 
-        connection.disconnect();
-
-        return new LogtailResponse(connection.getResponseMessage(), connection.getResponseCode());
+        LogtailEventSerializer serializer = getEventSerializer();
+        try (JsonGenerator generator = this.dataMapper.getFactory().createGenerator(os)) {
+            generator.setRootValueSeparator(new SerializedString(","));
+            for (int i = from; i < to; i++) {
+                serializer.write(batch, i, generator);
+            }
+        }
+        return os.toByteArray();
     }
 
-    protected HttpURLConnection getHttpURLConnection() throws IOException {
-        HttpURLConnection httpURLConnection = (HttpURLConnection) new URL(this.ingestUrl).openConnection();
-        httpURLConnection.setDoOutput(true);
-        httpURLConnection.setDoInput(true);
-        httpURLConnection.setRequestProperty("User-Agent", this.userAgent);
-        httpURLConnection.setRequestProperty("Accept", "application/json");
-        httpURLConnection.setRequestProperty("Content-Type", "application/json");
-        httpURLConnection.setRequestProperty("Charset", "UTF-8");
-        httpURLConnection.setRequestProperty("Authorization", String.format("Bearer %s", this.sourceToken));
-        httpURLConnection.setRequestMethod("POST");
-        httpURLConnection.setConnectTimeout(this.connectTimeout);
-        httpURLConnection.setReadTimeout(this.readTimeout);
-        return httpURLConnection;
+    /**
+     * Serializes a single event in the configured format, as stored in the disk spillover.
+     */
+    protected byte[] serializeEvent(ILoggingEvent event) throws IOException {
+        if (isMessagePack()) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream(256);
+            MessagePackEncoder encoder = new MessagePackEncoder(os, this.dataMapper);
+            encoder.writeMap(buildPostData(event));
+            encoder.flush();
+            return os.toByteArray();
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = this.dataMapper.getFactory().createGenerator(os)) {
+            getEventSerializer().write(event, generator);
+        }
+        return os.toByteArray();
     }
 
-    protected String batchToJson(int flushedSize) throws JsonProcessingException {
-        List<ILoggingEvent> snapshot;
-        synchronized (batch) {
-            snapshot = new ArrayList<>(batch.subList(0, flushedSize));
+    /**
+     * Serializer compiled from the current configuration, at start or on first use.
+     */
+    protected LogtailEventSerializer getEventSerializer() {
+        LogtailEventSerializer serializer = eventSerializer;
+        if (serializer == null) {
+            serializer = new LogtailEventSerializer(this);
+            eventSerializer = serializer;
         }
-        return this.dataMapper.writeValueAsString(
-            snapshot.stream()
-                .map(this::buildPostData)
-                .collect(Collectors.toList())
-        );
+        return serializer;
+    }
+
+    protected boolean isMessagePack() {
+        return "msgpack".equals(this.format);
     }
 
     protected Map<String, Object> buildPostData(ILoggingEvent event) {
@@ -273,11 +741,51 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         if (event.getThrowableProxy() != null) {
             logLine.put("throwable", generateLogThrowable(event.getThrowableProxy()));
         }
+        if (event instanceof LogtailCollapsedEvent) {
+            logLine.put("collapsed", ((LogtailCollapsedEvent) event).getSummary());
+        }
+
+        return logLine;
+    }
 
+    /**
+     * Builds the batch's event, its throwable deduplicated as decided when the batch was claimed - a repeated
+     * throwable and its causes are sent without their stack traces.
+     */
+    protected Map<String, Object> buildPostData(LogtailBatch batch, int index) {
+        Map<String, Object> logLine = buildPostData(batch.getEvents().get(index));
+        int repeats = batch.getThrowableRepeats(index);
+        Object throwable = logLine.get("throwable");
+        if (repeats >= 0 && throwable instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> logThrowable = (Map<String, Object>) throwable;
+            logThrowable.put("fingerprint", Long.toHexString(batch.getThrowableFingerprint(index)));
+            if (repeats > 0) {
+                logThrowable.put("repeated", repeats);
+                removeStackTraces(logThrowable);
+            }
+        }
         return logLine;
     }
 
+    @SuppressWarnings("unchecked")
+    private static void removeStackTraces(Map<String, Object> logThrowable) {
+        logThrowable.remove("stackTrace");
+        logThrowable.remove("commonFrames");
+        logThrowable.remove("omittedFrames");
+        Object cause = logThrowable.get("cause");
+        if (cause instanceof Map) {
+            removeStackTraces((Map<String, Object>) cause);
+        }
+    }
+
     protected String generateLogMessage(ILoggingEvent event) {
+        if (event instanceof LogtailEventSnapshot)
+            return ((LogtailEventSnapshot) event).getRenderedMessage();
+        // Summaries generated by the appender have no logger context nor caller data for the encoder's pattern
+        if (LogtailAppender.class.getName().equals(event.getLoggerName()))
+            return event.getFormattedMessage();
+
         return this.encoder != null ? new String(this.encoder.encode(event)) : event.getFormattedMessage();
     }
 
@@ -285,13 +793,8 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         Map<String, Object> logMeta = new HashMap<>();
         logMeta.put("logger", event.getLoggerName());
 
-        if (!mdcFields.isEmpty() && !event.getMDCPropertyMap().isEmpty()) {
-            for (Entry<String, String> entry : event.getMDCPropertyMap().entrySet()) {
-                if (mdcFields.contains(entry.getKey())) {
-                    String type = mdcTypes.get(mdcFields.indexOf(entry.getKey()));
-                    logMeta.put(entry.getKey(), getMetaValue(type, entry.getValue()));
-                }
-            }
+        if (!mdcFields.isEmpty()) {
+            getMdcSchema().putValues(event.getMDCPropertyMap(), logMeta);
         }
 
         return logMeta;
@@ -321,7 +824,19 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         Map<String, Object> logThrowable = new HashMap<>();
         logThrowable.put("message", throwable.getMessage());
         logThrowable.put("class", throwable.getClassName());
-        logThrowable.put("stackTrace", throwable.getStackTraceElementProxyArray());
+
+        StackTraceElementProxy[] stackTrace = throwable.getStackTraceElementProxyArray();
+        if (stackTrace != null) {
+            int commonFrames = getOmittedCommonFrames(throwable);
+            int frames = getSentFrames(throwable);
+            logThrowable.put("stackTrace", frames < stackTrace.length ? Arrays.copyOf(stackTrace, frames) : stackTrace);
+            if (commonFrames > 0) {
+                logThrowable.put("commonFrames", commonFrames);
+            }
+            if (frames < stackTrace.length - commonFrames) {
+                logThrowable.put("omittedFrames", stackTrace.length - commonFrames - frames);
+            }
+        }
         if (throwable.getCause() != null) {
             logThrowable.put("cause", generateLogThrowable(throwable.getCause()));
         }
@@ -329,23 +844,61 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         return logThrowable;
     }
 
-    protected Object getMetaValue(String type, String value) {
-        try {
-            switch (type) {
-                case "int":
-                    return Integer.valueOf(value);
-                case "long":
-                    return Long.valueOf(value);
-                case "boolean":
-                    return Boolean.valueOf(value);
+    /**
+     * Number of frames the throwable shares with its enclosing throwable which are not sent, like logback's
+     * <i>... n common frames omitted</i>. Only trimmed when deduplicating throwables.
+     */
+    protected int getOmittedCommonFrames(IThrowableProxy throwable) {
+        return throwableDeduplicationWindow > 0 ? Math.max(0, throwable.getCommonFrames()) : 0;
+    }
+
+    /**
+     * Number of frames of the throwable's stack trace which are sent, at most <i>maxStackTraceFrames</i>.
+     */
+    protected int getSentFrames(IThrowableProxy throwable) {
+        int frames = throwable.getStackTraceElementProxyArray().length - getOmittedCommonFrames(throwable);
+        return maxStackTraceFrames > 0 ? Math.min(frames, maxStackTraceFrames) : frames;
+    }
+
+    /**
+     * Fingerprints throwables of the batch's events and decides whether their stack traces are sent in full.
+     */
+    protected void deduplicateThrowables(LogtailBatch batch) {
+        List<ILoggingEvent> events = batch.getEvents();
+        for (int i = 0; i < events.size(); i++) {
+            IThrowableProxy throwable = events.get(i).getThrowableProxy();
+            if (throwable != null) {
+                long fingerprint = LogtailThrowableDeduplicator.fingerprint(throwable);
+                batch.setThrowableRepeats(i, fingerprint, throwableDeduplicator.register(fingerprint, events.get(i).getTimeStamp()));
+            }
+        }
+    }
+
+    /**
+     * Forgets the stack traces which the batch's events from the given index on were to send in full, as they're
+     * dropped - the next occurrence of each is sent in full instead of as a repeat of one never received.
+     */
+    protected void forgetThrowables(LogtailBatch batch, int from) {
+        if (throwableDeduplicator == null)
+            return;
+
+        List<ILoggingEvent> events = batch.getEvents();
+        for (int i = from; i < events.size(); i++) {
+            if (batch.getThrowableRepeats(i) == 0) {
+                throwableDeduplicator.forget(batch.getThrowableFingerprint(i), events.get(i).getTimeStamp());
             }
-        } catch (NumberFormatException e) {
-            logger.error("Error getting meta value - {}", e.getMessage(), e);
         }
+    }
 
-        return value;
+    protected Object getMetaValue(String type, String value) {
+        return getMdcSchema().convert(LogtailMdcSchema.Type.of(type), value);
     }
 
+    /**
+     * Flushes the queue once. Kept for backward compatibility, the appender sends logs through its long-lived
+     * {@link LogtailSenderLoop} rather than running this.
+     */
+    @Deprecated
     public class LogtailSender implements Runnable {
         @Override
         public void run() {
@@ -353,13 +906,22 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
                 flush();
             } catch (Exception e) {
                 logger.error("Error trying to flush : {}", e.getMessage(), e);
-                if (isFlushing.get()) {
-                    isFlushing.set(false);
-                }
             }
         }
     }
 
+    /**
+     * MDC fields sent as metadata, compiled from <i>mdcFields</i> and <i>mdcTypes</i>.
+     */
+    protected LogtailMdcSchema getMdcSchema() {
+        LogtailMdcSchema schema = mdcSchema;
+        if (schema == null) {
+            schema = new LogtailMdcSchema(this);
+            mdcSchema = schema;
+        }
+        return schema;
+    }
+
     /**
      * Sets the application name for Better Stack indexation.
      *
@@ -416,74 +978,268 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
      */
     public void setMdcFields(String mdcFields) {
         this.mdcFields = Arrays.asList(mdcFields.split(","));
+        this.mdcSchema = null;
+        this.eventSerializer = null;
     }
 
     /**
      * Sets the MDC fields types that will be sent as metadata, in the same order as <i>mdcFields</i> are set
-     * up, separated by a comma. Possible values are <i>string</i>, <i>boolean</i>, <i>int</i> and <i>long</i>.
+     * up, separated by a comma. Possible values are <i>string</i>, <i>boolean</i>, <i>int</i>, <i>long</i>,
+     * <i>double</i>, <i>timestamp</i> (milliseconds since the epoch or ISO-8601, sent as ISO-8601 UTC) and <i>json</i>
+     * (sent as a nested value). Values which can't be converted are sent as strings.
      *
      * @param mdcTypes
      *            MDC fields types
      */
     public void setMdcTypes(String mdcTypes) {
         this.mdcTypes = Arrays.asList(mdcTypes.split(","));
+        this.mdcSchema = null;
+        this.eventSerializer = null;
     }
 
     /**
-     * Sets the maximum number of messages in the queue. Messages over the limit will be dropped.
+     * @return number of MDC values which couldn't be converted to their type, and were sent as strings
+     */
+    public long getMdcConversionFailures() {
+        LogtailMdcSchema schema = mdcSchema;
+        return schema != null ? schema.getConversionFailures() : 0;
+    }
+
+    /**
+     * Enables snapshot mode - instead of the original logging events, the queue holds compact copies of the fields
+     * sent to Better Stack. The caller's arguments, MDC and throwable are then not retained while waiting for a flush,
+     * non-scalar arguments are sent as their string representation.
      *
-     * @param maxQueueSize
-     *            max size of the message queue
+     * @param snapshotEvents
+     *            whether to queue event snapshots
      */
-    public void setMaxQueueSize(int maxQueueSize) {
-        this.maxQueueSize = maxQueueSize;
+    public void setSnapshotEvents(boolean snapshotEvents) {
+        this.snapshotEvents = snapshotEvents;
     }
 
     /**
-     * Sets the batch size for the number of messages to be sent via the API
+     * Registers the appender's metrics as an MXBean named <i>com.logtail.logback:type=LogtailAppender,name=[appender
+     * name]</i> in the platform MBean server. Disabled by default.
      *
-     * @param batchSize
-     *            size of the message batch
+     * @param jmx
+     *            whether to register the metrics MXBean
      */
-    public void setBatchSize(int batchSize) {
-        this.batchSize = batchSize;
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
     }
 
     /**
-     * Get the batch size for the number of messages to be sent via the API
+     * @return metrics of the appender's pipeline
      */
-    public int getBatchSize() {
-        return batchSize;
+    public LogtailMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Sets the maximum wait time for a batch to be sent via the API, in milliseconds.
+     * Sets the maximum number of messages in the queue. Messages over the limit will be dropped.
      *
-     * @param batchInterval
-     *            maximum wait time for message batch [ms]
+     * @param maxQueueSize
+     *            max size of the message queue
      */
-    public void setBatchInterval(int batchInterval) {
-        scheduledFuture.cancel(false);
-        scheduledFuture = scheduledExecutorService.scheduleWithFixedDelay(new LogtailSender(), batchInterval, batchInterval, TimeUnit.MILLISECONDS);
-
-        this.batchInterval = batchInterval;
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
     }
 
     /**
-     * Sets the connection timeout of the underlying HTTP client, in milliseconds.
-     *
-     * @param connectTimeout
-     *            client connection timeout [ms]
+     * Get the current number of messages waiting in the queue
      */
-    public void setConnectTimeout(int connectTimeout) {
-        this.connectTimeout = connectTimeout;
+    public int getQueueSize() {
+        return queue.size();
     }
 
     /**
-     * Sets the read timeout of the underlying HTTP client, in milliseconds.
+     * Sets what happens to messages once the queue is full and the spillover, if enabled, has no room either - one of
+     * <i>drop-newest</i>, <i>drop-oldest</i>, <i>block</i> or <i>shed-lowest-level</i>. Defaults to <i>drop-newest</i>.
      *
-     * @param readTimeout
-     *            client read timeout
+     * @param overflowPolicy
+     *            name of the overflow policy
+     * @see LogtailOverflowPolicy
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        LogtailOverflowPolicy policy = LogtailOverflowPolicy.of(overflowPolicy);
+        if (policy == null) {
+            logger.error("Unknown overflow policy '{}', keeping {}.", overflowPolicy, this.overflowPolicy);
+            return;
+        }
+        this.overflowPolicy = policy;
+    }
+
+    /**
+     * Sets the maximum time a logging thread waits for room in a full queue, with the <i>block</i> overflow policy.
+     * Defaults to 100 [ms].
+     *
+     * @param overflowBlockTimeout
+     *            max wait time for room in the queue [ms]
+     */
+    public void setOverflowBlockTimeout(int overflowBlockTimeout) {
+        this.overflowBlockTimeout = overflowBlockTimeout;
+    }
+
+    /**
+     * Sets the maximum estimated size of messages in the queue, in bytes. Messages over the limit will be dropped,
+     * whichever of <i>maxQueueSize</i> and <i>maxQueueBytes</i> is reached first. Unlimited by default.
+     *
+     * @param maxQueueBytes
+     *            max size of the message queue [B]
+     */
+    public void setMaxQueueBytes(long maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    /**
+     * Get the current estimated size of messages waiting in the queue, or in batches waiting for a retry, in bytes
+     */
+    public long getQueueBytes() {
+        return queueBytes.sum();
+    }
+
+    /**
+     * Sets the batch size for the number of messages to be sent via the API
+     *
+     * @param batchSize
+     *            size of the message batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get the batch size for the number of messages to be sent via the API
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum wait time for a batch to be sent via the API, in milliseconds. A batch which isn't full is sent
+     * once its oldest message waited for this long.
+     *
+     * @param batchInterval
+     *            maximum wait time for message batch [ms]
+     */
+    public void setBatchInterval(int batchInterval) {
+        this.batchInterval = batchInterval;
+        wakeSender();
+    }
+
+    /**
+     * Enables the priority lane - events of this level and above, eg. <i>WARN</i>, are queued apart from the others
+     * in a queue of <i>priorityQueueSize</i> messages, so that a flood of lower level events can't crowd them out.
+     * They are sent first, once the oldest of them waited for <i>priorityBatchInterval</i>. Disabled by default.
+     *
+     * @param priorityLevel
+     *            lowest level of priority events
+     */
+    public void setPriorityLevel(String priorityLevel) {
+        Level level = priorityLevel == null || priorityLevel.trim().isEmpty() ? null : Level.toLevel(priorityLevel.trim(), null);
+        if (priorityLevel != null && !priorityLevel.trim().isEmpty() && level == null) {
+            logger.error("Unknown priority level '{}', the priority lane is disabled.", priorityLevel);
+        }
+        this.priorityLevel = level == Level.OFF ? null : level;
+    }
+
+    /**
+     * Sets the maximum number of priority events waiting to be sent. Once reached, they are queued as regular events.
+     * Defaults to 10000.
+     *
+     * @param priorityQueueSize
+     *            max number of priority messages in queue
+     */
+    public void setPriorityQueueSize(int priorityQueueSize) {
+        this.priorityQueueSize = priorityQueueSize;
+    }
+
+    /**
+     * Sets the maximum wait time for priority events to be sent. Defaults to 200 [ms].
+     *
+     * @param priorityBatchInterval
+     *            maximum wait time for priority messages [ms]
+     */
+    public void setPriorityBatchInterval(int priorityBatchInterval) {
+        this.priorityBatchInterval = priorityBatchInterval;
+        wakeSender();
+    }
+
+    /**
+     * Get the current number of priority messages waiting in the priority queue
+     */
+    public int getPriorityQueueSize() {
+        return priorityQueue != null ? priorityQueue.size() : 0;
+    }
+
+    /**
+     * Enables adaptive batching - the batch size and interval, starting from <i>batchSize</i> and
+     * <i>batchInterval</i>, are adjusted between their min and max bounds after each call to Better Stack. Batches
+     * grow while the queue backs up or Better Stack throttles, and shrink while traffic is quiet to keep latency low.
+     * Disabled by default.
+     *
+     * @param adaptiveBatching
+     *            whether to adjust batch size and interval
+     */
+    public void setAdaptiveBatching(boolean adaptiveBatching) {
+        this.adaptiveBatching = adaptiveBatching;
+    }
+
+    /**
+     * Sets the minimal batch size of adaptive batching. Defaults to 100.
+     *
+     * @param minBatchSize
+     *            min number of messages per batch
+     */
+    public void setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+    }
+
+    /**
+     * Sets the maximal batch size of adaptive batching. Defaults to 5000.
+     *
+     * @param maxBatchSize
+     *            max number of messages per batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets the minimal batch interval of adaptive batching. Defaults to 250 [ms].
+     *
+     * @param minBatchInterval
+     *            min wait time for message batch [ms]
+     */
+    public void setMinBatchInterval(int minBatchInterval) {
+        this.minBatchInterval = minBatchInterval;
+    }
+
+    /**
+     * Sets the maximal batch interval of adaptive batching. Defaults to 10000 [ms].
+     *
+     * @param maxBatchInterval
+     *            max wait time for message batch [ms]
+     */
+    public void setMaxBatchInterval(int maxBatchInterval) {
+        this.maxBatchInterval = maxBatchInterval;
+    }
+
+    /**
+     * Sets the connection timeout of the underlying HTTP client, in milliseconds.
+     *
+     * @param connectTimeout
+     *            client connection timeout [ms]
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Sets the read timeout of the underlying HTTP client, in milliseconds.
+     *
+     * @param readTimeout
+     *            client read timeout
      */
     public void setReadTimeout(int readTimeout) {
         this.readTimeout = readTimeout;
@@ -500,15 +1256,399 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
     }
 
     /**
-     * Sets the number of milliseconds to sleep before retrying to send logs to Better Stack.
+     * Sets the maximum number of batches sent to Better Stack in parallel. Each batch is retried and dropped on its own,
+     * and while one waits for a retry, no other events than priority ones are claimed.
+     *
+     * @param maxInFlightBatches
+     *            max number of concurrent requests
+     */
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = Math.max(1, maxInFlightBatches);
+    }
+
+    /**
+     * Enables catch-up once this many logs are queued or spilled over to disk, eg. after an outage - the batch size is
+     * raised up to <i>catchUpMaxBatchBytes</i> per request and up to <i>catchUpInFlightBatches</i> batches are sent in
+     * parallel, until the backlog is back to half of the threshold. Progress and estimated time to clear the backlog
+     * are logged every 10 seconds. Disabled by default.
+     *
+     * @param catchUpThreshold
+     *            number of queued or spilled over messages starting catch-up, 0 to disable it
+     */
+    public void setCatchUpThreshold(int catchUpThreshold) {
+        this.catchUpThreshold = catchUpThreshold;
+    }
+
+    /**
+     * Sets the maximum size of request bodies while catching up, before compression if enabled. Defaults to
+     * 4194304 [B].
+     *
+     * @param catchUpMaxBatchBytes
+     *            max size of catch-up requests [B]
+     */
+    public void setCatchUpMaxBatchBytes(long catchUpMaxBatchBytes) {
+        this.catchUpMaxBatchBytes = catchUpMaxBatchBytes;
+    }
+
+    /**
+     * Sets the maximum number of batches sent in parallel while catching up. Defaults to 4.
+     *
+     * @param catchUpInFlightBatches
+     *            max number of concurrent requests while catching up
+     */
+    public void setCatchUpInFlightBatches(int catchUpInFlightBatches) {
+        this.catchUpInFlightBatches = Math.max(1, catchUpInFlightBatches);
+    }
+
+    /**
+     * Sets the maximum time the appender takes to stop. Queued logs are sent in larger batches and more parallel
+     * requests until then, what is left is moved to the spillover if enabled, or dropped. 0 waits until all logs are
+     * sent or dropped after their retries - while Better Stack is unreachable, until a probe call once the circuit
+     * breaker lets one through. Defaults to 0.
+     *
+     * @param shutdownTimeout
+     *            max time to stop the appender [ms]
+     */
+    public void setShutdownTimeout(int shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Registers a JVM shutdown hook stopping the appender, so that queued logs are sent even when the application
+     * doesn't stop the logger context. Disabled by default.
+     *
+     * @param shutdownHook
+     *            whether to stop the appender on JVM shutdown
+     */
+    public void setShutdownHook(boolean shutdownHook) {
+        this.shutdownHook = shutdownHook;
+    }
+
+    /**
+     * Sets the number of threads serializing events of large batches in parallel, 0 for one per CPU core. Defaults to
+     * 1, ie. events are serialized by the sending thread.
+     *
+     * @param serializationThreads
+     *            number of serialization threads
+     */
+    public void setSerializationThreads(int serializationThreads) {
+        this.serializationThreads = serializationThreads > 0 ? serializationThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Enables deduplication of stack traces - a throwable with the same class and stack frames as one sent within this
+     * number of milliseconds is sent with its fingerprint and repeat count only, instead of its full stack trace.
+     * Frames a cause shares with its enclosing throwable are omitted as well. Applies to both JSON and MessagePack.
+     *
+     * @param throwableDeduplicationWindow
+     *            deduplication window [ms]
+     */
+    public void setThrowableDeduplicationWindow(int throwableDeduplicationWindow) {
+        this.throwableDeduplicationWindow = throwableDeduplicationWindow;
+    }
+
+    /**
+     * Sets the maximum number of frames sent for each stack trace of a throwable and its causes. Unlimited by default.
+     *
+     * @param maxStackTraceFrames
+     *            max number of frames per stack trace
+     */
+    public void setMaxStackTraceFrames(int maxStackTraceFrames) {
+        this.maxStackTraceFrames = maxStackTraceFrames;
+    }
+
+    /**
+     * Sets rate limits of logs sent, as <i>prefix[:LEVEL]=events per second</i> separated by commas, eg.
+     * <i>com.example.chatty=100,com.example:DEBUG=10,*=5000</i>. A prefix matches a logger and its descendants, a
+     * level limits logs of that level and below together. The rule of the longest matching prefix applies. Logs over
+     * the limit are dropped before being queued.
+     *
+     * @param rateLimits
+     *            rate limits by logger prefix and level
+     */
+    public void setRateLimits(String rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    /**
+     * Sets ratios of logs sent, as <i>prefix[:LEVEL]=ratio</i> separated by commas, eg.
+     * <i>com.example.chatty:DEBUG=0.1</i>. Matched like <i>rateLimits</i>, other logs are dropped before being queued.
+     *
+     * @param samplingRatios
+     *            sampling ratios between 0 and 1 by logger prefix and level
+     */
+    public void setSamplingRatios(String samplingRatios) {
+        this.samplingRatios = samplingRatios;
+    }
+
+    /**
+     * Sets the interval of summary logs of logs dropped by rate limits and sampling. Defaults to 60000 [ms].
+     *
+     * @param rateLimitSummaryInterval
+     *            interval between summaries [ms]
+     */
+    public void setRateLimitSummaryInterval(int rateLimitSummaryInterval) {
+        this.rateLimitSummaryInterval = rateLimitSummaryInterval;
+    }
+
+    /**
+     * Enables collapsing of bursts - past <i>burstCollapseThreshold</i> occurrences of the same logger, level and
+     * message template within this window, further occurrences are not sent. Once the window is over, a single log is
+     * sent instead, the last of them with a <i>collapsed</i> object holding their count, first and last timestamps and
+     * samples of their arguments. Disabled by default.
+     *
+     * @param burstCollapseWindow
+     *            window from the first occurrence of a template [ms]
+     */
+    public void setBurstCollapseWindow(int burstCollapseWindow) {
+        this.burstCollapseWindow = burstCollapseWindow;
+    }
+
+    /**
+     * Sets the number of occurrences of a message template sent as they are within a burst. Defaults to 10.
+     *
+     * @param burstCollapseThreshold
+     *            number of occurrences sent before collapsing
+     */
+    public void setBurstCollapseThreshold(int burstCollapseThreshold) {
+        this.burstCollapseThreshold = burstCollapseThreshold;
+    }
+
+    /**
+     * Sets the number of argument arrays of collapsed occurrences sent as samples. Defaults to 5.
+     *
+     * @param burstCollapseSamples
+     *            max number of samples
+     */
+    public void setBurstCollapseSamples(int burstCollapseSamples) {
+        this.burstCollapseSamples = burstCollapseSamples;
+    }
+
+    /**
+     * @return number of logs dropped by rate limits
+     */
+    public long getRateLimitedEvents() {
+        LogtailRateLimiter limiter = rateLimiter;
+        return limiter != null ? limiter.getRateLimited() : 0;
+    }
+
+    /**
+     * @return number of logs dropped by sampling
+     */
+    public long getSampledOutEvents() {
+        LogtailRateLimiter limiter = rateLimiter;
+        return limiter != null ? limiter.getSampledOut() : 0;
+    }
+
+    /**
+     * @return number of logs not checked for bursts, as the number of tracked message templates was at its limit
+     */
+    public long getUntrackedBurstEvents() {
+        LogtailBurstCollapser collapser = burstCollapser;
+        return collapser != null ? collapser.getUntracked() : 0;
+    }
+
+    /**
+     * Sets the number of logger names, thread names and caller names kept encoded as JSON, 0 disables the cache.
+     *
+     * @param stringCacheSize
+     *            number of cached strings
+     */
+    public void setStringCacheSize(int stringCacheSize) {
+        this.stringCacheSize = stringCacheSize;
+    }
+
+    /**
+     * Get the number of strings written from the cache of encoded strings
+     */
+    public long getStringCacheHits() {
+        LogtailStringCache cache = stringCache;
+        return cache != null ? cache.getHits() : 0;
+    }
+
+    /**
+     * Get the number of strings which had to be encoded as they weren't in the cache of encoded strings
+     */
+    public long getStringCacheMisses() {
+        LogtailStringCache cache = stringCache;
+        return cache != null ? cache.getMisses() : 0;
+    }
+
+    /**
+     * Enables the disk spillover - events which don't fit into the in-memory queue are written to memory-mapped files
+     * in this directory and replayed once Better Stack is reachable, also after a restart. Once the queue reaches
+     * <i>spilloverHighWaterMark</i>, all events are serialized and written to disk on the logging threads until the
+     * spillover is replayed, which is slower than queueing them.
+     *
+     * @param spilloverDirectory
+     *            directory of spillover files
+     */
+    public void setSpilloverDirectory(String spilloverDirectory) {
+        this.spilloverDirectory = spilloverDirectory;
+    }
+
+    /**
+     * Sets the maximum size of spillover files on disk, in bytes. Messages over the limit are kept in the queue if
+     * there is room, otherwise the overflow policy applies.
+     *
+     * @param spilloverMaxBytes
+     *            max size of spillover files [B]
+     */
+    public void setSpilloverMaxBytes(long spilloverMaxBytes) {
+        this.spilloverMaxBytes = spilloverMaxBytes;
+    }
+
+    /**
+     * Sets the size of a single spillover segment file, in bytes.
+     *
+     * @param spilloverSegmentSize
+     *            size of a spillover file [B]
+     */
+    public void setSpilloverSegmentSize(int spilloverSegmentSize) {
+        this.spilloverSegmentSize = spilloverSegmentSize;
+    }
+
+    /**
+     * Sets the number of messages in the queue above which new messages are written to the spillover. Defaults to
+     * 80% of <i>maxQueueSize</i>, at least 1.
+     *
+     * @param spilloverHighWaterMark
+     *            queue size triggering spillover
+     */
+    public void setSpilloverHighWaterMark(int spilloverHighWaterMark) {
+        this.spilloverHighWaterMark = spilloverHighWaterMark;
+    }
+
+    /**
+     * Get the number of bytes of messages waiting in the spillover
+     */
+    public long getSpilloverBytes() {
+        LogtailSpillover disk = spillover;
+        return disk != null ? disk.getPendingBytes() : 0;
+    }
+
+    /**
+     * Sets the number of milliseconds to wait before the first retry to send logs to Better Stack. The delay doubles
+     * with each retry, up to <i>maxRetryDelay</i>, and is randomized by up to half of it.
      *
      * @param retrySleepMilliseconds
-     *            number of milliseconds to sleep before retry
+     *            number of milliseconds to wait before the first retry
      */
     public void setRetrySleepMilliseconds(int retrySleepMilliseconds) {
         this.retrySleepMilliseconds = retrySleepMilliseconds;
     }
 
+    /**
+     * Sets the maximum number of milliseconds to wait before retrying to send logs to Better Stack.
+     *
+     * @param maxRetryDelay
+     *            max number of milliseconds to wait before retry
+     */
+    public void setMaxRetryDelay(int maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    /**
+     * Sets the number of consecutive failed calls after which no calls to Better Stack are made, until
+     * <i>circuitBreakerResetTimeout</i> elapses and a single probe call succeeds. 0 disables the circuit breaker.
+     *
+     * @param circuitBreakerFailureThreshold
+     *            number of consecutive failed calls
+     */
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * Sets the number of milliseconds to wait before probing Better Stack once the circuit breaker opened.
+     *
+     * @param circuitBreakerResetTimeout
+     *            number of milliseconds before a probe call
+     */
+    public void setCircuitBreakerResetTimeout(int circuitBreakerResetTimeout) {
+        this.circuitBreakerResetTimeout = circuitBreakerResetTimeout;
+    }
+
+    /**
+     * Enables streaming of batches into the request body using chunked transfer encoding, instead of serializing
+     * the whole batch into memory first.
+     *
+     * @param streaming
+     *            whether to stream batches
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Sets the compression of the request body. Possible values are <i>none</i> (default), <i>gzip</i> or a fully
+     * qualified class name of a {@link CompressionCodec} implementation, eg. for zstd.
+     *
+     * @param compression
+     *            compression codec
+     */
+    public void setCompression(String compression) {
+        String codec = compression == null ? "" : compression.trim();
+        if (codec.isEmpty() || codec.equalsIgnoreCase("none")) {
+            this.compressionCodec = null;
+            return;
+        }
+        if (codec.equalsIgnoreCase("gzip")) {
+            this.compressionCodec = new GzipCompressionCodec();
+            return;
+        }
+        try {
+            this.compressionCodec = Class.forName(codec).asSubclass(CompressionCodec.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException|ClassCastException e) {
+            logger.error("Compression codec '{}' couldn't be instantiated, sending uncompressed data : ", codec, e);
+            this.compressionCodec = null;
+        }
+    }
+
+    /**
+     * Sets the wire format of the data sent to Better Stack. Possible values are <i>json</i> (default) and
+     * <i>msgpack</i>.
+     *
+     * @param format
+     *            wire format
+     */
+    public void setFormat(String format) {
+        String value = format == null ? "" : format.trim().toLowerCase();
+        if (value.equals("json") || value.equals("msgpack")) {
+            this.format = value;
+        } else {
+            logger.error("Unknown format '{}', possible values are json and msgpack. Using json.", format);
+            this.format = "json";
+        }
+    }
+
+    /**
+     * Sets the transport used to deliver logs. Possible values are <i>httpurlconnection</i> (default),
+     * <i>httpclient</i> for the Java 11+ HTTP client with connection reuse and HTTP/2, or a fully qualified class
+     * name of a {@link LogtailTransport} implementation.
+     *
+     * @param transport
+     *            transport name or class name
+     */
+    public void setTransport(String transport) {
+        String value = transport == null ? "" : transport.trim();
+        String className;
+        if (value.isEmpty() || value.equalsIgnoreCase("httpurlconnection")) {
+            className = HttpURLConnectionTransport.class.getName();
+        } else if (value.equalsIgnoreCase("httpclient")) {
+            // Only available on Java 11+, from the multi-release part of the jar
+            className = "com.logtail.logback.HttpClientTransport";
+        } else {
+            className = value;
+        }
+        try {
+            this.transport = Class.forName(className).asSubclass(LogtailTransport.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException|ClassCastException|LinkageError e) {
+            logger.error("Transport '{}' couldn't be instantiated, falling back to HttpURLConnection : ", value, e);
+            this.transport = new HttpURLConnectionTransport();
+        }
+    }
+
     /**
      * Registers a dynamically loaded Module object to ObjectMapper used for serialization of logged data.
      *
@@ -519,6 +1659,7 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         try {
             Module module = (Module) Class.forName(className).newInstance();
             dataMapper.registerModule(module);
+            eventSerializer = null;
             logger.info("Module '{}' successfully registered in ObjectMapper.", className);
         } catch (ClassNotFoundException|InstantiationException|IllegalAccessException e) {
             logger.error("Module '{}' couldn't be registered in ObjectMapper : ", className, e);
@@ -533,11 +1674,160 @@ public class LogtailAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         return this.disabled;
     }
 
+    @Override
+    public void start() {
+        if (queue.getLimit() != maxQueueSize && queue.isEmpty()) {
+            queue = new LogtailRingBuffer<>(maxQueueSize);
+        }
+        flusher.start();
+        drain = null;
+        if (priorityLevel == null) {
+            priorityQueue = null;
+        } else if (priorityQueue == null || (priorityQueue.getLimit() != priorityQueueSize && priorityQueue.isEmpty())) {
+            priorityQueue = new LogtailRingBuffer<>(priorityQueueSize);
+        }
+        stringCache = stringCacheSize > 0 ? new LogtailStringCache(stringCacheSize) : null;
+        throwableDeduplicator = throwableDeduplicationWindow > 0 ? new LogtailThrowableDeduplicator(throwableDeduplicationWindow) : null;
+        mdcSchema = new LogtailMdcSchema(this);
+        try {
+            LogtailRateLimiter limiter = new LogtailRateLimiter(rateLimits, samplingRatios, rateLimitSummaryInterval);
+            rateLimiter = limiter.isEmpty() ? null : limiter;
+        } catch (IllegalArgumentException e) {
+            rateLimiter = null;
+            logger.error("Rate limits couldn't be parsed, logs won't be rate limited nor sampled : ", e);
+        }
+        burstCollapser = burstCollapseWindow > 0 ? new LogtailBurstCollapser(burstCollapseWindow, burstCollapseThreshold, burstCollapseSamples) : null;
+        eventSerializer = new LogtailEventSerializer(this);
+        circuitBreaker = new LogtailCircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerResetTimeout);
+        catchUp = catchUpThreshold > 0 ? new LogtailCatchUp(catchUpThreshold) : null;
+        batchController = adaptiveBatching
+                ? new LogtailBatchController(batchSize, batchInterval, minBatchSize, maxBatchSize, minBatchInterval, maxBatchInterval)
+                : null;
+        if (maxInFlightBatches > 1) {
+            senderExecutorService = Executors.newFixedThreadPool(maxInFlightBatches, threadFactory);
+        }
+        if (serializationThreads > 1) {
+            // The sending thread serializes a slice itself
+            serializerExecutorService = Executors.newFixedThreadPool(serializationThreads - 1, threadFactory);
+        }
+        if (spilloverDirectory != null && !spilloverDirectory.isEmpty()) {
+            try {
+                spillover = new LogtailSpillover(new File(spilloverDirectory), spilloverSegmentSize, spilloverMaxBytes, (byte) (isMessagePack() ? 1 : 0), logger);
+            } catch (IOException|IllegalArgumentException e) {
+                logger.error("Spillover couldn't be opened in '{}', logs over the queue size will be dropped : ", spilloverDirectory, e);
+            }
+        }
+        transport.start(this);
+        if (jmx) {
+            registerMetrics();
+        }
+
+        if (sender == null || !sender.isAlive()) {
+            sender = new LogtailSenderLoop(this);
+            sender.start();
+        }
+        if (shutdownHook && shutdownHookThread == null) {
+            shutdownHookThread = new Thread(() -> {
+                if (isStarted()) {
+                    stop();
+                }
+            }, "logtail-appender-shutdown-hook");
+            Runtime.getRuntime().addShutdownHook(shutdownHookThread);
+        }
+
+        super.start();
+    }
+
+    /**
+     * Whether stop() is draining the queue, or did.
+     */
+    protected boolean isDraining() {
+        return drain != null;
+    }
+
+    protected boolean isDrainAbandoned() {
+        LogtailDrain shutdown = drain;
+        return shutdown != null && shutdown.isAbandoned();
+    }
+
+    /**
+     * Whether the sender should leave the rest of the queue to the parallel drain of stop().
+     */
+    protected boolean isLeftToDrain() {
+        LogtailSenderLoop loop = sender;
+        return isDraining() && loop != null && loop.isCurrentThread();
+    }
+
+    protected boolean isPastShutdownDeadline() {
+        LogtailDrain shutdown = drain;
+        return shutdown != null && shutdown.isPastDeadline();
+    }
+
     @Override
     public void stop() {
-        scheduledExecutorService.shutdown();
-        mustReflush = true;
-        flush();
+        LogtailDrain shutdown = new LogtailDrain(this, shutdownTimeout);
+        drain = shutdown;
+        LogtailSenderLoop loop = sender;
+        if (loop != null) {
+            try {
+                // A flush in progress stops taking batches at the deadline, but may wait for a request in flight
+                loop.stop(shutdown.getJoinMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sender = null;
+        }
+        reportSuppressedEvents(true);
+        reportMdcConversionFailures();
+        sendCollapsedBursts(true);
+        shutdown.run();
+        shutdown.persistPendingLogs();
+        if (shutdownHookThread != null) {
+            if (Thread.currentThread() != shutdownHookThread) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHookThread);
+                } catch (IllegalStateException e) {
+                    // JVM already shutting down
+                }
+            }
+            shutdownHookThread = null;
+        }
+        if (senderExecutorService != null) {
+            senderExecutorService.shutdown();
+            senderExecutorService = null;
+        }
+        if (serializerExecutorService != null) {
+            serializerExecutorService.shutdown();
+            serializerExecutorService = null;
+        }
+        if (spillover != null) {
+            spillover.close();
+            spillover = null;
+        }
+        transport.stop();
+        unregisterMetrics();
         super.stop();
     }
+
+    protected void registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("com.logtail.logback:type=LogtailAppender,name=" + ObjectName.quote(getName() != null ? getName() : "logtail"));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsObjectName = name;
+        } catch (JMException e) {
+            logger.error("Metrics couldn't be registered in JMX : {}", e.getMessage(), e);
+        }
+    }
+
+    protected void unregisterMetrics() {
+        if (metricsObjectName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsObjectName);
+        } catch (JMException e) {
+            logger.error("Metrics couldn't be unregistered from JMX : {}", e.getMessage(), e);
+        }
+        metricsObjectName = null;
+    }
 }
@@ -0,0 +1,176 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Batch of events claimed from the queue, together with its own retry accounting. A batch is only ever handled by
+ * one sender at a time.
+ * <p>
+ * Batches replayed from the disk spillover carry already serialized records instead of events, together with the
+ * spillover position to acknowledge once they are delivered.
+ * <p>
+ * Whether throwables of the events are sent in full or as repeats is decided once when the batch is claimed, so
+ * that a retried batch carries the same stack traces.
+ */
+public class LogtailBatch {
+
+    private final List<ILoggingEvent> events;
+    private final List<byte[]> records = new ArrayList<>();
+    private long sequence = 0;
+    private int retries = 0;
+    private int lastStatus = 0;
+    private long bodyBytes = 0;
+    private long uncompressedBodyBytes = 0;
+    private long nextAttemptNanos = System.nanoTime();
+    private long spilloverSegment = -1;
+    private int spilloverOffset;
+    private long[] throwableFingerprints;
+    private int[] throwableRepeats;
+
+    public LogtailBatch(int capacity) {
+        this.events = new ArrayList<>(capacity);
+    }
+
+    public LogtailBatch(List<ILoggingEvent> events) {
+        this.events = events;
+    }
+
+    public List<ILoggingEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Serialized records, in the configured wire format, sent before the events.
+     */
+    public List<byte[]> getRecords() {
+        return records;
+    }
+
+    public int size() {
+        return records.size() + events.size();
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty() && events.isEmpty();
+    }
+
+    /**
+     * Records the fingerprint of the event's throwable and how many times it was repeated, 0 if its stack trace is
+     * sent in full.
+     */
+    public void setThrowableRepeats(int index, long fingerprint, int repeats) {
+        if (throwableRepeats == null) {
+            throwableFingerprints = new long[events.size()];
+            throwableRepeats = new int[events.size()];
+            Arrays.fill(throwableRepeats, -1);
+        }
+        throwableFingerprints[index] = fingerprint;
+        throwableRepeats[index] = repeats;
+    }
+
+    public long getThrowableFingerprint(int index) {
+        return throwableFingerprints != null ? throwableFingerprints[index] : 0;
+    }
+
+    /**
+     * @return number of times the event's throwable was repeated, 0 if sent in full, -1 if not fingerprinted
+     */
+    public int getThrowableRepeats(int index) {
+        return throwableRepeats != null ? throwableRepeats[index] : -1;
+    }
+
+    public boolean isFromSpillover() {
+        return spilloverSegment >= 0;
+    }
+
+    public long getSpilloverSegment() {
+        return spilloverSegment;
+    }
+
+    public int getSpilloverOffset() {
+        return spilloverOffset;
+    }
+
+    public void setSpilloverMark(long segment, int offset) {
+        this.spilloverSegment = segment;
+        this.spilloverOffset = offset;
+    }
+
+    /**
+     * HTTP status of the last attempt to send the batch, 0 if no response was received.
+     */
+    public int getLastStatus() {
+        return lastStatus;
+    }
+
+    public void setLastStatus(int lastStatus) {
+        this.lastStatus = lastStatus;
+    }
+
+    /**
+     * Size of the request body of the last attempt to send the batch, after compression.
+     */
+    public long getBodyBytes() {
+        return bodyBytes;
+    }
+
+    public void setBodyBytes(long bodyBytes) {
+        this.bodyBytes = bodyBytes;
+    }
+
+    /**
+     * Size of the request body of the last attempt to send the batch, before compression.
+     */
+    public long getUncompressedBodyBytes() {
+        return uncompressedBodyBytes;
+    }
+
+    public void setUncompressedBodyBytes(long uncompressedBodyBytes) {
+        this.uncompressedBodyBytes = uncompressedBodyBytes;
+    }
+
+    /**
+     * Order in which the batch was claimed, batches waiting for a retry are sent again in this order.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    public void incrementRetries() {
+        retries++;
+    }
+
+    /**
+     * Whether the retry delay of the batch has elapsed.
+     */
+    public boolean isDue(long nanoTime) {
+        return nanoTime - nextAttemptNanos >= 0;
+    }
+
+    /**
+     * {@link System#nanoTime()} before which the batch shouldn't be sent again.
+     */
+    public long getNextAttemptNanos() {
+        return nextAttemptNanos;
+    }
+
+    public void setNextAttemptNanos(long nextAttemptNanos) {
+        this.nextAttemptNanos = nextAttemptNanos;
+    }
+}
@@ -0,0 +1,80 @@
+package com.logtail.logback;
+
+/**
+ * Adjusts the batch size and interval between configured bounds, from the outcome of each call to Better Stack.
+ * <p>
+ * Under load - a backlog of more than a batch which keeps growing - the batch size is doubled, so that more events
+ * are sent per request. When Better Stack throttles or fails, both the size and the interval are doubled to lower
+ * the request rate. While traffic is quiet - batches are sent before they are full and nothing is waiting - both are
+ * decreased step by step, so that events aren't held back for long. The interval is also kept above twice the
+ * round-trip time, so that partial batches don't queue up behind slow calls.
+ */
+public class LogtailBatchController {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int minBatchInterval;
+    private final int maxBatchInterval;
+
+    private volatile int batchSize;
+    private volatile int batchInterval;
+    private int lastQueueSize;
+
+    public LogtailBatchController(int batchSize, int batchInterval, int minBatchSize, int maxBatchSize, int minBatchInterval, int maxBatchInterval) {
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.minBatchInterval = Math.max(1, minBatchInterval);
+        this.maxBatchInterval = Math.max(this.minBatchInterval, maxBatchInterval);
+        this.batchSize = clamp(batchSize, this.minBatchSize, this.maxBatchSize);
+        this.batchInterval = clamp(batchInterval, this.minBatchInterval, this.maxBatchInterval);
+    }
+
+    /**
+     * Records the outcome of a call to Better Stack.
+     *
+     * @param events
+     *            number of events of the batch
+     * @param roundTripMillis
+     *            duration of the call [ms]
+     * @param status
+     *            HTTP status of the response, 0 if none was received
+     * @param queueSize
+     *            number of events left in the queue
+     */
+    public synchronized void onBatchSent(int events, long roundTripMillis, int status, int queueSize) {
+        int size = batchSize;
+        int interval = batchInterval;
+
+        if (status == 0 || status == 408 || status == 429 || status >= 500) {
+            size = size * 2;
+            interval = interval * 2;
+        } else if (queueSize >= size && queueSize >= lastQueueSize) {
+            size = size * 2;
+        } else if (events < size && queueSize < size / 2) {
+            size = size - Math.max(1, size / 8);
+            interval = interval - Math.max(1, interval / 4);
+        }
+        if (roundTripMillis * 2 > interval) {
+            interval = (int) Math.min(Integer.MAX_VALUE, roundTripMillis * 2);
+        }
+
+        lastQueueSize = queueSize;
+        batchSize = clamp(size, minBatchSize, maxBatchSize);
+        batchInterval = clamp(interval, minBatchInterval, maxBatchInterval);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the batch interval [ms]
+     */
+    public int getBatchInterval() {
+        return batchInterval;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
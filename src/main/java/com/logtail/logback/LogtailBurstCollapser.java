@@ -0,0 +1,253 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Collapses bursts of events of the same logger, level and message template.
+ * <p>
+ * Within a window starting at the first occurrence, the first <i>threshold</i> occurrences are kept, the following
+ * ones are only counted. Once the window is over, a single summary of them is handed over - their count, first and
+ * last timestamps, a few samples of their arguments and the last of them. The number of tracked templates is bounded,
+ * events of other templates are kept and counted as untracked while the limit is reached.
+ */
+public class LogtailBurstCollapser {
+
+    private static final int MAX_BURSTS = 4096;
+    private static final int CLOSED = Integer.MIN_VALUE;
+    /**
+     * Key the bursts are looked up with, reused by each logging thread - a key is only allocated for a new burst.
+     */
+    private static final ThreadLocal<Key> LOOKUP_KEY = ThreadLocal.withInitial(Key::new);
+
+    private final long windowMilliseconds;
+    private final int threshold;
+    private final int samples;
+
+    private final Map<Key, Burst> bursts = new ConcurrentHashMap<>();
+    private final Queue<Burst> closedBursts = new ConcurrentLinkedQueue<>();
+    private final LongAdder untracked = new LongAdder();
+
+    /**
+     * @param windowMilliseconds
+     *            length of a burst, from its first occurrence
+     * @param threshold
+     *            number of occurrences kept within a burst
+     * @param samples
+     *            max number of argument arrays sampled from the collapsed occurrences
+     */
+    public LogtailBurstCollapser(long windowMilliseconds, int threshold, int samples) {
+        this.windowMilliseconds = windowMilliseconds;
+        this.threshold = threshold;
+        this.samples = samples;
+    }
+
+    /**
+     * Counts the event into its burst.
+     *
+     * @return <i>true</i> if the event is collapsed, and must not be sent itself
+     */
+    public boolean collapse(ILoggingEvent event) {
+        if (event.getMessage() == null)
+            return false;
+
+        Key key = LOOKUP_KEY.get().set(event.getLoggerName(), event.getLevel(), event.getMessage());
+        long timestamp = event.getTimeStamp();
+        while (true) {
+            Burst burst = bursts.get(key);
+            if (burst == null) {
+                if (bursts.size() >= MAX_BURSTS) {
+                    untracked.increment();
+                    return false;
+                }
+
+                burst = new Burst(event, samples);
+                Burst existing = bursts.putIfAbsent(key.copy(), burst);
+                if (existing != null)
+                    burst = existing;
+            }
+
+            if (timestamp - burst.start >= windowMilliseconds) {
+                close(key, burst);
+                continue;
+            }
+
+            int occurrences = burst.occurrences.get();
+            if (occurrences == CLOSED) {
+                bursts.remove(key, burst);
+                continue;
+            }
+            if (!burst.occurrences.compareAndSet(occurrences, occurrences + 1))
+                continue;
+
+            if (occurrences < threshold)
+                return false;
+
+            burst.record(occurrences - threshold, event);
+            return true;
+        }
+    }
+
+    /**
+     * Hands over bursts whose window is over and which collapsed events.
+     *
+     * @param all
+     *            whether to hand over all bursts, eg. on shutdown
+     */
+    public void poll(long now, boolean all, Consumer<Burst> consumer) {
+        for (Iterator<Map.Entry<Key, Burst>> iterator = bursts.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Key, Burst> entry = iterator.next();
+            if (all || now - entry.getValue().start >= windowMilliseconds) {
+                close(entry.getKey(), entry.getValue());
+            }
+        }
+
+        Burst burst;
+        while ((burst = closedBursts.poll()) != null) {
+            consumer.accept(burst);
+        }
+    }
+
+    /**
+     * Time at which the earliest window is over, among bursts of this level and above which collapsed events.
+     *
+     * @return milliseconds since the epoch, <i>Long.MAX_VALUE</i> if there is no such burst
+     */
+    public long getNextWindowEnd(Level level) {
+        long end = Long.MAX_VALUE;
+        for (Map.Entry<Key, Burst> entry : bursts.entrySet()) {
+            Burst burst = entry.getValue();
+            if (entry.getKey().level.isGreaterOrEqual(level) && burst.occurrences.get() > threshold) {
+                end = Math.min(end, burst.start + windowMilliseconds);
+            }
+        }
+        return end;
+    }
+
+    public int size() {
+        return bursts.size();
+    }
+
+    /**
+     * Number of events not checked for bursts, as the number of tracked templates was at its limit.
+     */
+    public long getUntracked() {
+        return untracked.sum();
+    }
+
+    private void close(Key key, Burst burst) {
+        int occurrences = burst.occurrences.getAndSet(CLOSED);
+        bursts.remove(key, burst);
+        if (occurrences != CLOSED && occurrences > threshold) {
+            burst.count = occurrences - threshold;
+            closedBursts.add(burst);
+        }
+    }
+
+    /**
+     * Collapsed occurrences of a message template.
+     */
+    public static class Burst {
+        private final long start;
+        private final AtomicInteger occurrences = new AtomicInteger();
+        private final AtomicReferenceArray<Object[]> arguments;
+        private volatile ILoggingEvent last;
+        private volatile long firstTimestamp;
+        private int count;
+
+        Burst(ILoggingEvent first, int samples) {
+            this.start = first.getTimeStamp();
+            this.arguments = new AtomicReferenceArray<>(samples);
+            this.last = first;
+        }
+
+        void record(int ordinal, ILoggingEvent event) {
+            if (ordinal == 0) {
+                firstTimestamp = event.getTimeStamp();
+            }
+            if (ordinal < arguments.length() && event.getArgumentArray() != null) {
+                arguments.set(ordinal, LogtailEventSnapshot.copyArguments(event.getArgumentArray()));
+            }
+            last = event;
+        }
+
+        /**
+         * Number of collapsed occurrences.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public long getFirstTimestamp() {
+            return firstTimestamp != 0 ? firstTimestamp : start;
+        }
+
+        public long getLastTimestamp() {
+            return last.getTimeStamp();
+        }
+
+        /**
+         * Last collapsed occurrence.
+         */
+        public ILoggingEvent getLastEvent() {
+            return last;
+        }
+
+        /**
+         * Arguments of the first collapsed occurrences.
+         */
+        public List<Object[]> getSamples() {
+            List<Object[]> sampled = new ArrayList<>(arguments.length());
+            for (int i = 0; i < arguments.length(); i++) {
+                if (arguments.get(i) != null)
+                    sampled.add(arguments.get(i));
+            }
+            return sampled;
+        }
+    }
+
+    private static class Key {
+        String loggerName;
+        Level level;
+        String template;
+        int hash;
+
+        Key set(String loggerName, Level level, String template) {
+            this.loggerName = loggerName;
+            this.level = level;
+            this.template = template;
+            this.hash = 31 * (31 * Objects.hashCode(loggerName) + level.toInt()) + template.hashCode();
+            return this;
+        }
+
+        Key copy() {
+            return new Key().set(loggerName, level, template);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return hash == key.hash && level == key.level && template.equals(key.template) && Objects.equals(loggerName, key.loggerName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
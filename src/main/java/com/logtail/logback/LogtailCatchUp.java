@@ -0,0 +1,96 @@
+package com.logtail.logback;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a backlog of queued or spilled over events, eg. after an outage of Better Stack, so that it can be drained
+ * faster.
+ * <p>
+ * Catch-up starts once the backlog reaches the threshold, and ends once it is back to half of it, so that the mode
+ * doesn't flap around the threshold. While catching up, the net rate at which the backlog shrinks - events sent minus
+ * events logged meanwhile - is sampled about every second and smoothed, giving the estimated time to clear it.
+ */
+public class LogtailCatchUp {
+
+    private static final long SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int threshold;
+
+    private volatile boolean active;
+    private long startNanos;
+    private int startQueueSize;
+    private long sampleNanos;
+    private int sampleQueueSize;
+    private double drainRate = Double.NaN;
+
+    public LogtailCatchUp(int threshold) {
+        this.threshold = Math.max(1, threshold);
+    }
+
+    /**
+     * Records the current size of the backlog.
+     *
+     * @return whether catch-up is active
+     */
+    public synchronized boolean update(int queueSize, long nowNanos) {
+        if (!active) {
+            if (queueSize < threshold)
+                return false;
+
+            active = true;
+            startNanos = sampleNanos = nowNanos;
+            startQueueSize = sampleQueueSize = queueSize;
+            drainRate = Double.NaN;
+            return true;
+        }
+
+        if (queueSize <= threshold / 2) {
+            active = false;
+            return false;
+        }
+
+        long elapsed = nowNanos - sampleNanos;
+        if (elapsed >= SAMPLE_NANOS) {
+            double rate = (sampleQueueSize - queueSize) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            drainRate = Double.isNaN(drainRate) ? rate : (drainRate + rate) / 2;
+            sampleNanos = nowNanos;
+            sampleQueueSize = queueSize;
+        }
+        return true;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Net number of events per second the backlog shrinks by, negative while it still grows, NaN until first sampled.
+     */
+    public synchronized double getDrainRate() {
+        return active ? drainRate : Double.NaN;
+    }
+
+    /**
+     * Estimated time until the backlog is back below the threshold [ms], -1 if unknown or if it isn't shrinking.
+     */
+    public synchronized long getEtaMillis() {
+        if (!active || Double.isNaN(drainRate) || drainRate <= 0)
+            return -1;
+        return (long) (Math.max(0, sampleQueueSize - threshold / 2) * 1000 / drainRate);
+    }
+
+    /**
+     * Duration of the current catch-up [ms], 0 if inactive.
+     */
+    public synchronized long getElapsedMillis(long nowNanos) {
+        return active ? TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos) : 0;
+    }
+
+    public synchronized int getStartQueueSize() {
+        return startQueueSize;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+}
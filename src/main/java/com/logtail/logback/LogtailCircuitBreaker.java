@@ -0,0 +1,115 @@
+package com.logtail.logback;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stops calls to Better Stack while it is clearly unreachable.
+ * <p>
+ * After <i>failureThreshold</i> consecutive failed calls the breaker opens and no calls are made until the reset
+ * timeout, extended by a random jitter so that a fleet of appenders doesn't probe in lock-step, elapses. Then a single
+ * probe call is let through (half-open) - the breaker closes if it succeeds and opens again if it fails. A threshold
+ * of 0 disables the breaker.
+ */
+public class LogtailCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long resetTimeoutNanos;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openUntilNanos;
+
+    public LogtailCircuitBreaker(int failureThreshold, long resetTimeoutMilliseconds) {
+        this.failureThreshold = failureThreshold;
+        this.resetTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(resetTimeoutMilliseconds);
+    }
+
+    /**
+     * Whether a call could be made now, without claiming it. Lock-free.
+     */
+    public boolean isCallPermitted() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.nanoTime() - openUntilNanos >= 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Claims a call. When the reset timeout elapsed, only the first caller gets to make the probe call.
+     *
+     * @return <i>false</i> if no call may be made now
+     */
+    public boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED)
+            return true;
+
+        return current == State.OPEN && System.nanoTime() - openUntilNanos >= 0
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+    }
+
+    /**
+     * Records a call which reached Better Stack.
+     */
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    /**
+     * Records a call which failed because of Better Stack being unreachable or overloaded.
+     */
+    public void onFailure() {
+        if (failureThreshold <= 0)
+            return;
+
+        if (state.get() == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open(State.CLOSED);
+        }
+    }
+
+    /**
+     * Gives back a claimed call which wasn't made - eg. when there was nothing left to send.
+     */
+    public void release() {
+        state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Milliseconds until the next probe call is permitted, 0 if a call is permitted now.
+     */
+    public long getRemainingOpenMilliseconds() {
+        return TimeUnit.NANOSECONDS.toMillis(getRemainingOpenNanos());
+    }
+
+    /**
+     * Nanoseconds until the next probe call is permitted, 0 if a call is permitted now. Unlike the milliseconds, a
+     * wait of this long is never cut short of the reset timeout.
+     */
+    public long getRemainingOpenNanos() {
+        if (state.get() != State.OPEN)
+            return 0;
+        return Math.max(0, openUntilNanos - System.nanoTime());
+    }
+
+    private void open(State from) {
+        long jitter = resetTimeoutNanos > 0 ? ThreadLocalRandom.current().nextLong(resetTimeoutNanos / 2 + 1) : 0;
+        openUntilNanos = System.nanoTime() + resetTimeoutNanos + jitter;
+        state.compareAndSet(from, State.OPEN);
+    }
+}
@@ -0,0 +1,55 @@
+package com.logtail.logback;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the last event of a burst, standing for all occurrences of its message template collapsed by
+ * {@link LogtailBurstCollapser}. Sent with a <i>collapsed</i> object holding their count, first and last timestamps
+ * and samples of their arguments.
+ */
+public class LogtailCollapsedEvent extends LogtailEventSnapshot {
+
+    private final int count;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final List<Object[]> samples;
+
+    public LogtailCollapsedEvent(LogtailBurstCollapser.Burst burst, String renderedMessage, Collection<String> mdcFields) {
+        super(burst.getLastEvent(), renderedMessage, mdcFields);
+        this.count = burst.getCount();
+        this.firstTimestamp = burst.getFirstTimestamp();
+        this.lastTimestamp = burst.getLastTimestamp();
+        this.samples = burst.getSamples();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public List<Object[]> getSamples() {
+        return samples;
+    }
+
+    /**
+     * The <i>collapsed</i> object sent along with the event.
+     */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        summary.put("firstDt", Long.toString(firstTimestamp));
+        summary.put("lastDt", Long.toString(lastTimestamp));
+        summary.put("samples", samples);
+        return summary;
+    }
+}
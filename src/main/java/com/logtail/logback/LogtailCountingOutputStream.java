@@ -0,0 +1,34 @@
+package com.logtail.logback;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes of a request body written to the underlying stream, either the compressed bytes sent or the
+ * content before compression.
+ */
+public class LogtailCountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    public LogtailCountingOutputStream(OutputStream os) {
+        super(os);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,192 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drain of the appender's queue on shutdown. The queued logs are sent with up to {@link #IN_FLIGHT_BATCHES} parallel
+ * requests until they are all sent or the deadline passes - what's left then is moved to the spillover if enabled,
+ * otherwise dropped. Without a timeout, the drain waits for the logs to be sent or to run out of retries - or while
+ * Better Stack is unreachable, for a probe call once the circuit breaker lets one through.
+ */
+public class LogtailDrain {
+
+    /**
+     * Minimal number of batches sent in parallel while draining.
+     */
+    public static final int IN_FLIGHT_BATCHES = 8;
+
+    private final LogtailAppender appender;
+    private final int timeoutMillis;
+    private final long deadlineNanos;
+
+    private volatile boolean abandoned = false;
+
+    /**
+     * @param timeoutMillis
+     *            time left to send the queued logs from now [ms], 0 for no deadline
+     */
+    public LogtailDrain(LogtailAppender appender, int timeoutMillis) {
+        this.appender = appender;
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public boolean isPastDeadline() {
+        return timeoutMillis > 0 && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Time left until the deadline, to wait for a thread with {@link Thread#join(long)}.
+     *
+     * @return milliseconds, at least 1, or 0 if there is no deadline
+     */
+    public long getJoinMillis() {
+        return timeoutMillis > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())) : 0;
+    }
+
+    /**
+     * Whether the drain was given up on, and pending logs were persisted.
+     */
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Sends the queued logs and waits for scheduled retries, until they are all sent or the deadline passes.
+     */
+    public void run() {
+        if (timeoutMillis <= 0) {
+            drain();
+            return;
+        }
+
+        // A request stuck until its read timeout mustn't hold the shutdown past the deadline
+        Thread drainer = appender.threadFactory.newThread(this::drain);
+        drainer.setName("logtail-appender-drain");
+        drainer.start();
+        try {
+            drainer.join(getJoinMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flushes until no logs are pending or the deadline passes, waiting for scheduled retries of batches. While Better
+     * Stack is unreachable, waits for the circuit breaker to let a probe call through - once that probe failed, the
+     * rest is given up on rather than waiting for further probes.
+     */
+    protected void drain() {
+        LogtailCircuitBreaker circuitBreaker = appender.circuitBreaker;
+        boolean probed = false;
+        while (hasPendingLogs() && !isPastDeadline()) {
+            LogtailCircuitBreaker.State state = circuitBreaker.getState();
+            // The probe call failed and opened the breaker again
+            if (probed && state == LogtailCircuitBreaker.State.OPEN)
+                return;
+
+            long delay = getDelayNanos(state);
+            if (delay > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            // Only counts once the reset timeout elapsed, a wait capped by the deadline makes no probe call
+            probed |= circuitBreaker.getState() == LogtailCircuitBreaker.State.OPEN && circuitBreaker.isCallPermitted();
+            appender.flush();
+        }
+    }
+
+    protected boolean hasPendingLogs() {
+        return !appender.queue.isEmpty() || !appender.flusher.retryBatches.isEmpty() || appender.getPriorityQueueSize() > 0;
+    }
+
+    /**
+     * Time until the next flush may send something - the circuit breaker lets a call through, and the queue isn't
+     * held back by a batch waiting for its retry. Capped by the deadline.
+     *
+     * @return nanoseconds to wait, 0 or less to flush right away
+     */
+    protected long getDelayNanos(LogtailCircuitBreaker.State state) {
+        long now = System.nanoTime();
+        long delay = 0;
+        LogtailBatch retryBatch = appender.flusher.peekRetryBatch();
+        if (retryBatch != null) {
+            delay = retryBatch.getNextAttemptNanos() - now;
+        }
+        if (state == LogtailCircuitBreaker.State.OPEN) {
+            delay = Math.max(delay, appender.circuitBreaker.getRemainingOpenNanos());
+        } else if (state == LogtailCircuitBreaker.State.HALF_OPEN || appender.flusher.isFlushing.get()) {
+            // Probe call or flush in progress on another thread
+            delay = Math.max(delay, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        if (timeoutMillis > 0) {
+            delay = Math.min(delay, deadlineNanos - now);
+        }
+        return delay;
+    }
+
+    /**
+     * Gives up on the drain, and moves the logs which couldn't be sent before the deadline to the spillover if enabled,
+     * otherwise drops them. Batches replayed from the spillover are still there.
+     */
+    public void persistPendingLogs() {
+        // Batches still in flight on the abandoned drain persist themselves if they fail
+        abandoned = true;
+
+        LogtailFlusher flusher = appender.flusher;
+        List<ILoggingEvent> pending = new ArrayList<>();
+        LogtailBatch retryBatch;
+        while ((retryBatch = flusher.retryBatches.pollFirst()) != null) {
+            flusher.countRetryBatch(retryBatch, -1);
+            if (!retryBatch.isFromSpillover()) {
+                pending.addAll(retryBatch.getEvents());
+            }
+        }
+        int queued = pending.size();
+        LogtailRingBuffer<ILoggingEvent> lane = appender.priorityQueue;
+        if (lane != null) {
+            lane.drainTo(pending, Integer.MAX_VALUE);
+        }
+        appender.queue.drainTo(pending, Integer.MAX_VALUE);
+        for (int i = queued; i < pending.size(); i++) {
+            appender.queueBytes.add(-appender.estimateSize(pending.get(i)));
+        }
+        persistEvents(pending);
+    }
+
+    /**
+     * Persists a batch which failed after the drain was given up on. Batches replayed from the spillover are still
+     * there.
+     */
+    public void persistAbandonedBatch(LogtailBatch batch) {
+        if (!batch.isFromSpillover()) {
+            persistEvents(batch.getEvents());
+        }
+    }
+
+    private void persistEvents(List<ILoggingEvent> events) {
+        if (events.isEmpty())
+            return;
+
+        int spilled = 0;
+        for (ILoggingEvent event : events) {
+            if (appender.spill(event)) {
+                spilled++;
+            }
+        }
+        appender.metrics.onDropped(LogtailMetrics.DropReason.SHUTDOWN, events.size() - spilled);
+        if (timeoutMillis > 0) {
+            appender.logger.error("Logs not sent within shutdown timeout of {} ms : {} moved to spillover, {} dropped.", timeoutMillis, spilled, events.size() - spilled);
+        } else {
+            appender.logger.error("Logs not sent on shutdown, Better Stack is unreachable : {} moved to spillover, {} dropped.", spilled, events.size() - spilled);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * JSON serializer of logging events, compiled once from the appender's configuration.
+ * <p>
+ * Events are written straight into the given {@link JsonGenerator}, with pre-encoded field names, instead of being
+ * converted into maps first - the output is the same as serializing {@link LogtailAppender#buildPostData}. Scalar
+ * values are written without boxing nor intermediate strings, so that an event without arguments of other types or
+ * throwable is serialized without any allocation. Logger, thread and caller names are written from the appender's
+ * {@link LogtailStringCache}. Arguments of other types and stack traces are still serialized by the appender's
+ * ObjectMapper.
+ * <p>
+ * When the appender overrides any of the methods building the maps, events are serialized from
+ * {@link LogtailAppender#buildPostData} instead, so that the customization is preserved.
+ */
+public class LogtailEventSerializer {
+
+    private static final SerializedString DT = new SerializedString("dt");
+    private static final SerializedString LEVEL = new SerializedString("level");
+    private static final SerializedString APP = new SerializedString("app");
+    private static final SerializedString MESSAGE = new SerializedString("message");
+    private static final SerializedString META = new SerializedString("meta");
+    private static final SerializedString LOGGER = new SerializedString("logger");
+    private static final SerializedString RUNTIME = new SerializedString("runtime");
+    private static final SerializedString THREAD = new SerializedString("thread");
+    private static final SerializedString CLASS = new SerializedString("class");
+    private static final SerializedString METHOD = new SerializedString("method");
+    private static final SerializedString FILE = new SerializedString("file");
+    private static final SerializedString LINE = new SerializedString("line");
+    private static final SerializedString ARGS = new SerializedString("args");
+    private static final SerializedString THROWABLE = new SerializedString("throwable");
+    private static final SerializedString STACK_TRACE = new SerializedString("stackTrace");
+    private static final SerializedString CAUSE = new SerializedString("cause");
+    private static final SerializedString COMMON_FRAMES = new SerializedString("commonFrames");
+    private static final SerializedString OMITTED_FRAMES = new SerializedString("omittedFrames");
+    private static final SerializedString FINGERPRINT = new SerializedString("fingerprint");
+    private static final SerializedString REPEATED = new SerializedString("repeated");
+    private static final SerializedString COLLAPSED = new SerializedString("collapsed");
+
+    private static final SerializedString TRACE = new SerializedString(Level.TRACE.toString());
+    private static final SerializedString DEBUG = new SerializedString(Level.DEBUG.toString());
+    private static final SerializedString INFO = new SerializedString(Level.INFO.toString());
+    private static final SerializedString WARN = new SerializedString(Level.WARN.toString());
+    private static final SerializedString ERROR = new SerializedString(Level.ERROR.toString());
+
+    // Quoted decimal representation of timestamps, as sent in "dt"
+    private static final ThreadLocal<char[]> TIMESTAMP_BUFFER = ThreadLocal.withInitial(() -> new char[22]);
+
+    private final LogtailAppender appender;
+    private final ObjectWriter writer;
+    private final LogtailStringCache stringCache;
+    private final boolean compiled;
+    private final SerializableString appName;
+    private final LogtailMdcSchema mdcSchema;
+
+    public LogtailEventSerializer(LogtailAppender appender) {
+        this.appender = appender;
+        this.writer = appender.dataMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.stringCache = appender.stringCache;
+        this.compiled = !overridesPostData(appender.getClass());
+        this.appName = appender.appName != null ? new SerializedString(appender.appName) : null;
+        this.mdcSchema = appender.getMdcSchema();
+    }
+
+    private static boolean overridesPostData(Class<?> appenderClass) {
+        for (Class<?> type = appenderClass; type != LogtailAppender.class; type = type.getSuperclass()) {
+            for (Method method : type.getDeclaredMethods()) {
+                switch (method.getName()) {
+                    case "buildPostData":
+                    case "generateLogMeta":
+                    case "generateLogRuntime":
+                    case "generateLogThrowable":
+                    case "getMetaValue":
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the event as a JSON object.
+     */
+    public void write(ILoggingEvent event, JsonGenerator generator) throws IOException {
+        write(event, generator, 0, -1);
+    }
+
+    /**
+     * Writes the batch's event as a JSON object, its throwable deduplicated as decided when the batch was claimed.
+     */
+    public void write(LogtailBatch batch, int index, JsonGenerator generator) throws IOException {
+        if (!compiled) {
+            writer.writeValue(generator, appender.buildPostData(batch, index));
+            return;
+        }
+        write(batch.getEvents().get(index), generator, batch.getThrowableFingerprint(index), batch.getThrowableRepeats(index));
+    }
+
+    private void write(ILoggingEvent event, JsonGenerator generator, long fingerprint, int repeats) throws IOException {
+        if (!compiled) {
+            writer.writeValue(generator, appender.buildPostData(event));
+            return;
+        }
+
+        generator.writeStartObject();
+
+        generator.writeFieldName(DT);
+        writeTimestamp(event.getTimeStamp(), generator);
+
+        generator.writeFieldName(LEVEL);
+        writeLevel(event.getLevel(), generator);
+
+        if (appName != null) {
+            generator.writeFieldName(APP);
+            generator.writeString(appName);
+        }
+
+        String message = appender.generateLogMessage(event);
+        if (message != null) {
+            generator.writeFieldName(MESSAGE);
+            generator.writeString(message);
+        }
+
+        generator.writeFieldName(META);
+        writeMeta(event, generator);
+
+        generator.writeFieldName(RUNTIME);
+        writeRuntime(event, generator);
+
+        Object[] arguments = event.getArgumentArray();
+        if (arguments != null) {
+            generator.writeFieldName(ARGS);
+            generator.writeStartArray();
+            for (Object argument : arguments) {
+                writeValue(argument, generator);
+            }
+            generator.writeEndArray();
+        }
+
+        if (event.getThrowableProxy() != null) {
+            generator.writeFieldName(THROWABLE);
+            writeThrowable(event.getThrowableProxy(), generator, fingerprint, repeats);
+        }
+
+        if (event instanceof LogtailCollapsedEvent) {
+            generator.writeFieldName(COLLAPSED);
+            writer.writeValue(generator, ((LogtailCollapsedEvent) event).getSummary());
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeTimestamp(long timestamp, JsonGenerator generator) throws IOException {
+        char[] buffer = TIMESTAMP_BUFFER.get();
+        int position = buffer.length;
+        buffer[--position] = '"';
+        boolean negative = timestamp < 0;
+        do {
+            buffer[--position] = (char) ('0' + Math.abs(timestamp % 10));
+            timestamp /= 10;
+        } while (timestamp != 0);
+        if (negative) {
+            buffer[--position] = '-';
+        }
+        buffer[--position] = '"';
+        generator.writeRawValue(buffer, position, buffer.length - position);
+    }
+
+    private void writeLevel(Level level, JsonGenerator generator) throws IOException {
+        switch (level.toInt()) {
+            case Level.TRACE_INT:
+                generator.writeString(TRACE);
+                break;
+            case Level.DEBUG_INT:
+                generator.writeString(DEBUG);
+                break;
+            case Level.INFO_INT:
+                generator.writeString(INFO);
+                break;
+            case Level.WARN_INT:
+                generator.writeString(WARN);
+                break;
+            case Level.ERROR_INT:
+                generator.writeString(ERROR);
+                break;
+            default:
+                generator.writeString(level.toString());
+        }
+    }
+
+    private void writeMeta(ILoggingEvent event, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (event.getLoggerName() != null) {
+            generator.writeFieldName(LOGGER);
+            writeCached(event.getLoggerName(), generator);
+        }
+
+        if (mdcSchema.size() > 0) {
+            mdcSchema.writeValues(event.getMDCPropertyMap(), generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeRuntime(ILoggingEvent event, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (event.getThreadName() != null) {
+            generator.writeFieldName(THREAD);
+            writeCached(event.getThreadName(), generator);
+        }
+
+        if (event.hasCallerData()) {
+            StackTraceElement[] callerData = event.getCallerData();
+
+            if (callerData.length > 0) {
+                StackTraceElement callerContext = callerData[0];
+
+                generator.writeFieldName(CLASS);
+                writeCached(callerContext.getClassName(), generator);
+                generator.writeFieldName(METHOD);
+                writeCached(callerContext.getMethodName(), generator);
+                if (callerContext.getFileName() != null) {
+                    generator.writeFieldName(FILE);
+                    writeCached(callerContext.getFileName(), generator);
+                }
+                generator.writeFieldName(LINE);
+                generator.writeNumber(callerContext.getLineNumber());
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * @param repeats
+     *            number of times the throwable was repeated within the deduplication window, -1 if not fingerprinted
+     */
+    private void writeThrowable(IThrowableProxy throwable, JsonGenerator generator, long fingerprint, int repeats) throws IOException {
+        generator.writeStartObject();
+        writeThrowableSummary(throwable, generator);
+        if (repeats >= 0) {
+            generator.writeFieldName(FINGERPRINT);
+            generator.writeString(Long.toHexString(fingerprint));
+        }
+
+        if (repeats > 0) {
+            // Stack traces of the throwable and its causes were sent already
+            generator.writeFieldName(REPEATED);
+            generator.writeNumber(repeats);
+        } else {
+            writeStackTrace(throwable, generator);
+        }
+
+        if (throwable.getCause() != null) {
+            generator.writeFieldName(CAUSE);
+            if (repeats > 0) {
+                writeRepeatedCause(throwable.getCause(), generator);
+            } else {
+                writeThrowable(throwable.getCause(), generator, 0, -1);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeRepeatedCause(IThrowableProxy throwable, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        writeThrowableSummary(throwable, generator);
+        if (throwable.getCause() != null) {
+            generator.writeFieldName(CAUSE);
+            writeRepeatedCause(throwable.getCause(), generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeThrowableSummary(IThrowableProxy throwable, JsonGenerator generator) throws IOException {
+        if (throwable.getMessage() != null) {
+            generator.writeFieldName(MESSAGE);
+            generator.writeString(throwable.getMessage());
+        }
+        if (throwable.getClassName() != null) {
+            generator.writeFieldName(CLASS);
+            writeCached(throwable.getClassName(), generator);
+        }
+    }
+
+    private void writeStackTrace(IThrowableProxy throwable, JsonGenerator generator) throws IOException {
+        StackTraceElementProxy[] stackTrace = throwable.getStackTraceElementProxyArray();
+        if (stackTrace == null)
+            return;
+
+        int commonFrames = appender.getOmittedCommonFrames(throwable);
+        int frames = appender.getSentFrames(throwable);
+        generator.writeFieldName(STACK_TRACE);
+        if (frames < stackTrace.length) {
+            generator.writeStartArray();
+            for (int i = 0; i < frames; i++) {
+                writer.writeValue(generator, stackTrace[i]);
+            }
+            generator.writeEndArray();
+        } else {
+            writer.writeValue(generator, stackTrace);
+        }
+        if (commonFrames > 0) {
+            generator.writeFieldName(COMMON_FRAMES);
+            generator.writeNumber(commonFrames);
+        }
+        if (frames < stackTrace.length - commonFrames) {
+            generator.writeFieldName(OMITTED_FRAMES);
+            generator.writeNumber(stackTrace.length - commonFrames - frames);
+        }
+    }
+
+    private void writeCached(String value, JsonGenerator generator) throws IOException {
+        SerializableString encoded = stringCache != null ? stringCache.get(value) : null;
+        if (encoded != null) {
+            generator.writeString(encoded);
+        } else {
+            generator.writeString(value);
+        }
+    }
+
+    private void writeValue(Object value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            writer.writeValue(generator, value);
+        }
+    }
+}
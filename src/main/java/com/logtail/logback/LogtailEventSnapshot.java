@@ -0,0 +1,181 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.ThrowableProxyVO;
+import org.slf4j.Marker;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact immutable copy of a logging event, holding only what is sent to Better Stack.
+ * <p>
+ * Unlike the original event, the snapshot doesn't retain the caller's argument objects (non-scalar arguments are
+ * captured as their string representation), the whole MDC map (only the configured MDC fields are kept), the
+ * throwable itself (its proxy is copied into a {@link ThrowableProxyVO}) nor the full caller stack.
+ */
+public class LogtailEventSnapshot implements ILoggingEvent {
+
+    private final long timeStamp;
+    private final Level level;
+    private final String loggerName;
+    private final String threadName;
+    private final String message;
+    private final String formattedMessage;
+    private final String renderedMessage;
+    private final Object[] argumentArray;
+    private final Map<String, String> mdcPropertyMap;
+    private final StackTraceElement[] callerData;
+    private final IThrowableProxy throwableProxy;
+    private final LoggerContextVO loggerContextVO;
+    private final Marker marker;
+
+    /**
+     * @param renderedMessage
+     *            message as sent to Better Stack, ie. already encoded by the appender's encoder if any
+     * @param mdcFields
+     *            MDC fields to keep
+     */
+    public LogtailEventSnapshot(ILoggingEvent event, String renderedMessage, Collection<String> mdcFields) {
+        this.timeStamp = event.getTimeStamp();
+        this.level = event.getLevel();
+        this.loggerName = event.getLoggerName();
+        this.threadName = event.getThreadName();
+        this.message = event.getMessage();
+        this.formattedMessage = event.getFormattedMessage();
+        this.renderedMessage = renderedMessage;
+        this.argumentArray = copyArguments(event.getArgumentArray());
+        this.mdcPropertyMap = copyMdc(event.getMDCPropertyMap(), mdcFields);
+        this.callerData = event.hasCallerData() && event.getCallerData().length > 0
+                ? new StackTraceElement[]{ event.getCallerData()[0] }
+                : null;
+        this.throwableProxy = event.getThrowableProxy() != null ? ThrowableProxyVO.build(event.getThrowableProxy()) : null;
+        this.loggerContextVO = event.getLoggerContextVO();
+        this.marker = event.getMarker();
+    }
+
+    static Object[] copyArguments(Object[] arguments) {
+        if (arguments == null)
+            return null;
+
+        Object[] copy = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            Object argument = arguments[i];
+            copy[i] = argument == null || isImmutableScalar(argument) ? argument : String.valueOf(argument);
+        }
+        return copy;
+    }
+
+    private static boolean isImmutableScalar(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof Float || value instanceof Short || value instanceof Byte || value instanceof Boolean
+                || value instanceof Character || value instanceof BigDecimal || value instanceof BigInteger
+                || value instanceof Enum;
+    }
+
+    private static Map<String, String> copyMdc(Map<String, String> mdc, Collection<String> mdcFields) {
+        if (mdc == null || mdc.isEmpty() || mdcFields.isEmpty())
+            return Collections.emptyMap();
+
+        Map<String, String> copy = null;
+        for (String field : mdcFields) {
+            String value = mdc.get(field);
+            if (value != null) {
+                if (copy == null)
+                    copy = new HashMap<>(4);
+                copy.put(field, value);
+            }
+        }
+        return copy == null ? Collections.emptyMap() : copy;
+    }
+
+    /**
+     * Message as sent to Better Stack.
+     */
+    public String getRenderedMessage() {
+        return renderedMessage;
+    }
+
+    @Override
+    public String getThreadName() {
+        return threadName;
+    }
+
+    @Override
+    public Level getLevel() {
+        return level;
+    }
+
+    @Override
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public Object[] getArgumentArray() {
+        return argumentArray;
+    }
+
+    @Override
+    public String getFormattedMessage() {
+        return formattedMessage;
+    }
+
+    @Override
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    @Override
+    public LoggerContextVO getLoggerContextVO() {
+        return loggerContextVO;
+    }
+
+    @Override
+    public IThrowableProxy getThrowableProxy() {
+        return throwableProxy;
+    }
+
+    @Override
+    public StackTraceElement[] getCallerData() {
+        return callerData;
+    }
+
+    @Override
+    public boolean hasCallerData() {
+        return callerData != null;
+    }
+
+    @Override
+    public Marker getMarker() {
+        return marker;
+    }
+
+    @Override
+    public Map<String, String> getMDCPropertyMap() {
+        return mdcPropertyMap;
+    }
+
+    @Override
+    @Deprecated
+    public Map<String, String> getMdc() {
+        return mdcPropertyMap;
+    }
+
+    @Override
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    @Override
+    public void prepareForDeferredProcessing() {
+        // Already immutable
+    }
+}
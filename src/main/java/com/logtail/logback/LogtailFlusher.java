@@ -0,0 +1,523 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Flushes of the appender's queue. A flush claims batches - those waiting for a retry first, then the queue and the
+ * spillover - and sends them with up to <i>maxInFlightBatches</i> parallel requests. Failed batches wait for their
+ * retry in the order they were claimed. Only one flush runs at a time, either on the {@link LogtailSenderLoop} or on
+ * a thread calling {@link LogtailAppender#flush()}, eg. the {@link LogtailDrain}.
+ */
+public class LogtailFlusher {
+
+    private final LogtailAppender appender;
+
+    // Ordered by claim, as batches sent in parallel may fail in any order
+    protected final NavigableSet<LogtailBatch> retryBatches = new ConcurrentSkipListSet<>(Comparator.comparingLong(LogtailBatch::getSequence));
+    // Only incremented by the thread flushing
+    protected long batchSequence = 0;
+    protected final AtomicInteger retryEvents = new AtomicInteger();
+    protected final AtomicBoolean isFlushing = new AtomicBoolean(false);
+    protected LogtailResizableSemaphore inFlightBatches;
+    protected volatile int inFlightLimit;
+    protected volatile boolean spilloverPaused = false;
+    protected volatile int catchUpBatchSize = 0;
+    protected long catchUpReportNanos;
+    protected volatile long lastFlushNanos = System.nanoTime();
+
+    public LogtailFlusher(LogtailAppender appender) {
+        this.appender = appender;
+        this.inFlightBatches = new LogtailResizableSemaphore(appender.maxInFlightBatches);
+        this.inFlightLimit = appender.maxInFlightBatches;
+    }
+
+    /**
+     * Applies the configuration of the appender being started. Batches waiting for a retry are kept.
+     */
+    public void start() {
+        inFlightBatches = new LogtailResizableSemaphore(appender.maxInFlightBatches);
+        inFlightLimit = appender.maxInFlightBatches;
+        catchUpBatchSize = 0;
+    }
+
+    /**
+     * Sends the queued logs, the batches due for a retry and the spilled over logs, while Better Stack is reachable.
+     * Returns right away if another flush is in progress, unless draining.
+     */
+    public void flush() {
+        LogtailSpillover disk = appender.spillover;
+        if (appender.queue.isEmpty() && retryBatches.isEmpty() && (appender.priorityQueue == null || appender.priorityQueue.isEmpty())
+                && (disk == null || !disk.hasPendingRecords()))
+            return;
+
+        // Guaranteed to not be running concurrently
+        if (isFlushing.getAndSet(true) && !(appender.isDraining() && awaitFlushing()))
+            return;
+
+        spilloverPaused = false;
+        lastFlushNanos = System.nanoTime();
+
+        try {
+            // Only the thread flushing may resize the in-flight batches
+            if (appender.isDraining()) {
+                resizeInFlightBatches(Math.max(inFlightLimit, LogtailDrain.IN_FLIGHT_BATCHES));
+            }
+
+            boolean dispatched;
+            do {
+                dispatched = false;
+                LogtailBatch batch;
+                while (appender.circuitBreaker.isCallPermitted() && !appender.isLeftToDrain()) {
+                    updateCatchUp();
+                    inFlightBatches.acquireUninterruptibly();
+                    batch = nextBatch();
+                    if (batch == null) {
+                        inFlightBatches.release();
+                        break;
+                    }
+                    dispatch(batch);
+                    dispatched = true;
+                }
+
+                // Wait for batches in flight, failed ones are scheduled for retry
+                int limit = inFlightLimit;
+                inFlightBatches.acquireUninterruptibly(limit);
+                inFlightBatches.release(limit);
+                // Spilled over events are only off the backlog once acknowledged
+                updateCatchUp();
+            } while (appender.circuitBreaker.isCallPermitted() && !appender.isLeftToDrain()
+                    && (hasDueRetryBatch() || appender.getPriorityQueueSize() > 0
+                        || retryBatches.isEmpty() && (appender.queue.size() >= appender.getEffectiveBatchSize()
+                            || appender.isDraining() && !appender.queue.isEmpty() && !appender.isPastShutdownDeadline()
+                            || dispatched && isSpilloverReplayable())));
+        } finally {
+            isFlushing.set(false);
+        }
+
+        // Flushes may also run outside of the sender, which waits for them to be done, eg. to pick up the retries
+        LogtailSenderLoop loop = appender.sender;
+        if (loop != null && !loop.isCurrentThread()) {
+            loop.wake();
+        }
+    }
+
+    /**
+     * Takes over from a flush in progress once it's done, eg. one of the sender which stop() stopped waiting for, so
+     * that the drain doesn't give up on the queue right away.
+     *
+     * @return <i>false</i> if the flush is still in progress at the shutdown deadline
+     */
+    protected boolean awaitFlushing() {
+        while (isFlushing.getAndSet(true)) {
+            if (appender.isPastShutdownDeadline())
+                return false;
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    protected boolean hasDueRetryBatch() {
+        LogtailBatch batch = peekRetryBatch();
+        return batch != null && batch.isDue(System.nanoTime());
+    }
+
+    /**
+     * Next batch to be retried - batches are retried in the order they were first claimed, a batch waits for the
+     * retry of those claimed before it.
+     *
+     * @return the batch, or <i>null</i> if no batch waits for a retry
+     */
+    protected LogtailBatch peekRetryBatch() {
+        Iterator<LogtailBatch> batches = retryBatches.iterator();
+        return batches.hasNext() ? batches.next() : null;
+    }
+
+    /**
+     * Delay before the given retry of a batch - exponential backoff capped by <i>maxRetryDelay</i>, with a random
+     * jitter of up to half of the delay, so that appenders don't retry in lock-step after an outage.
+     */
+    protected long getRetryDelay(int retries) {
+        long delay = Math.min(appender.maxRetryDelay, (long) appender.retrySleepMilliseconds << Math.min(retries - 1, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Whether spilled over events are waiting to be replayed. Spillover batches are read ahead as long as there are
+     * batches in flight left, so the flush keeps replaying until the spillover is empty.
+     */
+    protected boolean isSpilloverReplayable() {
+        LogtailSpillover disk = appender.spillover;
+        return disk != null && !spilloverPaused && !appender.isDraining() && disk.hasPendingRecords();
+    }
+
+    /**
+     * Claims the next batch to be sent - batches waiting for a retry go first, then the in-memory queue and finally
+     * events spilled over to disk, in order to keep events ordered. Until a batch waiting for a retry is sent, only
+     * priority events are claimed besides it.
+     *
+     * @return the batch, or <i>null</i> if there is nothing to send
+     */
+    protected LogtailBatch nextBatch() {
+        // Whatever is left at the shutdown deadline is persisted or reported by stop()
+        if (appender.isPastShutdownDeadline())
+            return null;
+
+        LogtailRingBuffer<ILoggingEvent> lane = appender.priorityQueue;
+        if (lane == null || lane.isEmpty()) {
+            LogtailBatch retryBatch = peekRetryBatch();
+            if (retryBatch != null && retryBatch.isDue(System.nanoTime()) && retryBatches.remove(retryBatch)) {
+                countRetryBatch(retryBatch, -1);
+                return retryBatch;
+            }
+        }
+
+        boolean retrying = !retryBatches.isEmpty();
+        int batchSize = appender.getEffectiveBatchSize();
+        LogtailBatch batch = new LogtailBatch(Math.min(batchSize, (retrying ? 0 : appender.queue.size()) + (lane != null ? lane.size() : 0)));
+        if (lane != null) {
+            lane.drainTo(batch.getEvents(), batchSize);
+        }
+        // Priority events are topped up with regular ones, unless those have to wait behind a retry
+        if (!retrying) {
+            appender.queue.drainTo(batch.getEvents(), batchSize - batch.getEvents().size());
+        }
+        if (!batch.isEmpty()) {
+            long size = 0;
+            for (ILoggingEvent event : batch.getEvents()) {
+                size += appender.estimateSize(event);
+            }
+            appender.queueBytes.add(-size);
+            if (appender.throwableDeduplicator != null) {
+                appender.deduplicateThrowables(batch);
+            }
+            batch.setSequence(++batchSequence);
+            return batch;
+        }
+
+        // Spilled over events are persisted already, they are replayed after a restart rather than during shutdown
+        LogtailSpillover disk = appender.spillover;
+        if (disk == null || spilloverPaused || appender.isDraining() || retrying)
+            return null;
+
+        try {
+            LogtailBatch spilled = disk.read(appender.getEffectiveBatchSize());
+            if (spilled != null) {
+                spilled.setSequence(++batchSequence);
+            }
+            return spilled;
+        } catch (IOException e) {
+            appender.logger.error("Error reading logs from spillover : {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Sends the batch, in parallel with other batches when <i>maxInFlightBatches</i> is above 1. The caller holds an
+     * in-flight permit which is released once the batch is handled.
+     */
+    protected void dispatch(LogtailBatch batch) {
+        Runnable send = () -> {
+            try {
+                // Closed by stop() meanwhile if the drain was abandoned
+                LogtailSpillover disk = appender.spillover;
+                // Rewound meanwhile, the records are read again, or left on disk for the next start
+                if (batch.isFromSpillover() && (disk == null || !disk.isOutstanding(batch)))
+                    return;
+                if (batch.getRetries() > appender.maxRetries && disk != null && keepInSpillover(disk, batch))
+                    return;
+
+                if (!flushLogs(batch)) {
+                    countRetryBatch(batch, 1);
+                    retryBatches.add(batch);
+                    // Failed after stop() persisted the pending logs, either it was taken along or it's persisted here
+                    LogtailDrain shutdown = appender.drain;
+                    if (shutdown != null && shutdown.isAbandoned() && retryBatches.remove(batch)) {
+                        countRetryBatch(batch, -1);
+                        shutdown.persistAbandonedBatch(batch);
+                    }
+                } else if (batch.isFromSpillover() && disk != null) {
+                    disk.acknowledge(batch);
+                    appender.warnAboutSpilloverSize = true;
+                }
+            } catch (IOException e) {
+                appender.logger.error("Error acknowledging logs in spillover : {}", e.getMessage(), e);
+            } finally {
+                inFlightBatches.release();
+            }
+        };
+
+        if (appender.senderExecutorService == null) {
+            send.run();
+            return;
+        }
+        try {
+            appender.senderExecutorService.execute(send);
+        } catch (RejectedExecutionException e) {
+            send.run();
+        }
+    }
+
+    /**
+     * Instead of dropping a batch which ran out of retries, keeps it on disk. Batches replayed from the spillover stay
+     * there until the next flush, unless they were rejected as invalid by Better Stack.
+     *
+     * @return <i>true</i> if the batch was kept
+     */
+    protected boolean keepInSpillover(LogtailSpillover disk, LogtailBatch batch) throws IOException {
+        if (batch.isFromSpillover()) {
+            int status = batch.getLastStatus();
+            if (status >= 400 && status < 500 && status != 408 && status != 429)
+                return false;
+
+            disk.rewind(batch);
+            spilloverPaused = true;
+            return true;
+        }
+
+        int spilled = 0;
+        for (ILoggingEvent event : batch.getEvents()) {
+            if (!appender.spill(event))
+                break;
+            spilled++;
+        }
+        appender.forgetThrowables(batch, spilled);
+        appender.metrics.onDropped(LogtailMetrics.DropReason.QUEUE_FULL, batch.size() - spilled);
+        appender.logger.error("Moved batch of {} logs to spillover, dropped {} logs.", spilled, batch.size() - spilled);
+        return true;
+    }
+
+    protected boolean flushLogs(LogtailBatch batch) {
+        int flushedSize = batch.size();
+
+        // Dispatched before stop() gave up on the drain, not sent anymore
+        if (appender.isDrainAbandoned())
+            return false;
+
+        try {
+            if (batch.getRetries() > appender.maxRetries) {
+                appender.logger.error("Dropped batch of {} logs.", flushedSize);
+                appender.forgetThrowables(batch, 0);
+                appender.metrics.onDropped(LogtailMetrics.DropReason.MAX_RETRIES, flushedSize);
+                appender.warnAboutMaxQueueSize = true;
+
+                return true;
+            }
+
+            // Better Stack is unreachable, keep the batch without using up its retries
+            if (!appender.circuitBreaker.tryAcquire())
+                return false;
+
+            if (batch.getRetries() > 0) {
+                appender.logger.info("Retrying to send {} logs to Better Stack ({} / {})", flushedSize, batch.getRetries(), appender.maxRetries);
+            }
+
+            LogtailResponse response;
+            long start = System.nanoTime();
+            try {
+                response = appender.callIngest(batch);
+            } catch (JsonProcessingException e) {
+                appender.circuitBreaker.release();
+                throw e;
+            } catch (Exception e) {
+                onCallCompleted(batch, System.nanoTime() - start, 0);
+                throw e;
+            }
+            batch.setLastStatus(response.getStatus());
+            onCallCompleted(batch, System.nanoTime() - start, response.getStatus());
+
+            if (response.getStatus() >= 300 || response.getStatus() < 200) {
+                appender.logger.error("Error calling Better Stack : {} ({})", response.getError(), response.getStatus());
+                appender.metrics.onFailedRequest();
+                recordFailedCall(response.getStatus());
+                scheduleRetry(batch);
+
+                return false;
+            }
+
+            appender.circuitBreaker.onSuccess();
+            appender.metrics.onSent(batch);
+            appender.warnAboutMaxQueueSize = true;
+
+            return true;
+
+        } catch (JsonProcessingException e) {
+            appender.logger.error("Error processing JSON data : {}", e.getMessage(), e);
+            batch.setRetries(appender.maxRetries); // No point in retrying when batch cannot be processed into JSON
+
+        } catch (Exception e) {
+            appender.logger.error("Error trying to call Better Stack : {}", e.getMessage(), e);
+            appender.metrics.onFailedRequest();
+            appender.circuitBreaker.onFailure();
+        }
+
+        batch.setLastStatus(0);
+        scheduleRetry(batch);
+
+        return false;
+    }
+
+    /**
+     * Records the outcome of a call to Better Stack in the metrics and the adaptive batching.
+     *
+     * @param status
+     *            HTTP status of the response, 0 if none was received
+     */
+    protected void onCallCompleted(LogtailBatch batch, long roundTripNanos, int status) {
+        if (status > 0) {
+            appender.metrics.onRoundTrip(roundTripNanos);
+        }
+        LogtailBatchController controller = appender.batchController;
+        if (controller != null) {
+            controller.onBatchSent(batch.size(), TimeUnit.NANOSECONDS.toMillis(roundTripNanos), status, appender.queue.size());
+        }
+    }
+
+    /**
+     * Enters or leaves catch-up according to the backlog, and reports the progress of the catch-up every 10
+     * seconds. Called only by the thread flushing, which is the one allowed to resize the in-flight batches.
+     */
+    protected void updateCatchUp() {
+        LogtailCatchUp tracker = appender.catchUp;
+        if (tracker == null || appender.isDraining())
+            return;
+
+        boolean wasActive = tracker.isActive();
+        long now = System.nanoTime();
+        if (!tracker.update(getBacklogSize(), now)) {
+            if (wasActive) {
+                catchUpBatchSize = 0;
+                resizeInFlightBatches(appender.maxInFlightBatches);
+                appender.logger.info("Caught up on backlog of {} logs, back to regular batches.", tracker.getStartQueueSize());
+            }
+            return;
+        }
+
+        if (!wasActive) {
+            catchUpBatchSize = getCatchUpBatchSize();
+            catchUpReportNanos = now;
+            resizeInFlightBatches(Math.max(appender.maxInFlightBatches, appender.catchUpInFlightBatches));
+            appender.logger.warn("Catching up on backlog of {} logs, with batches of {} logs and {} parallel requests.", tracker.getStartQueueSize(), catchUpBatchSize, inFlightLimit);
+            return;
+        }
+
+        // Size of sent events is known better as the catch-up goes
+        catchUpBatchSize = getCatchUpBatchSize();
+        if (now - catchUpReportNanos >= TimeUnit.SECONDS.toNanos(10)) {
+            catchUpReportNanos = now;
+            long eta = tracker.getEtaMillis();
+            appender.logger.info("Catching up on backlog : {} logs left, shrinking by {} logs/s, {} to clear.", getBacklogSize(),
+                    Math.round(tracker.getDrainRate()), eta >= 0 ? TimeUnit.MILLISECONDS.toSeconds(eta) + " s" : "unknown time");
+        }
+    }
+
+    /**
+     * Number of events waiting to be sent - queued ones and those spilled over to disk.
+     */
+    protected int getBacklogSize() {
+        long size = appender.queue.size();
+        LogtailSpillover disk = appender.spillover;
+        if (disk != null) {
+            size += disk.getPendingRecords();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * Number of events fitting into <i>catchUpMaxBatchBytes</i>, from the average uncompressed size of request bodies
+     * sent so far, or before anything was sent, the size of spilled over events or the estimated size of queued ones.
+     */
+    protected int getCatchUpBatchSize() {
+        long sentEvents = appender.metrics.getSentEvents();
+        LogtailSpillover disk = appender.spillover;
+        long spilledEvents = disk != null ? disk.getPendingRecords() : 0;
+        double eventBytes;
+        if (sentEvents > 0) {
+            eventBytes = (double) appender.metrics.getSentUncompressedBytes() / sentEvents;
+        } else if (spilledEvents > 0) {
+            eventBytes = (double) disk.getPendingBytes() / spilledEvents;
+        } else {
+            eventBytes = (double) appender.queueBytes.sum() / Math.max(1, appender.queue.size());
+        }
+        long size = (long) (appender.catchUpMaxBatchBytes / Math.max(1, eventBytes));
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * Only responses telling that Better Stack is unavailable or overloaded count towards opening the circuit breaker.
+     */
+    protected void recordFailedCall(int status) {
+        if (status >= 500 || status == 408 || status == 429) {
+            appender.circuitBreaker.onFailure();
+        } else {
+            appender.circuitBreaker.onSuccess();
+        }
+    }
+
+    /**
+     * Counts the events of a batch put back for a retry towards <i>maxQueueSize</i> and <i>maxQueueBytes</i>, or no
+     * longer once claimed again.
+     *
+     * @param sign
+     *            1 when the batch is put back, -1 when it is claimed
+     */
+    protected void countRetryBatch(LogtailBatch batch, int sign) {
+        List<ILoggingEvent> events = batch.getEvents();
+        long size = 0;
+        for (int i = 0; i < events.size(); i++) {
+            size += appender.estimateSize(events.get(i));
+        }
+        retryEvents.addAndGet(sign * events.size());
+        appender.queueBytes.add(sign * size);
+    }
+
+    protected void scheduleRetry(LogtailBatch batch) {
+        batch.incrementRetries();
+        if (batch.getRetries() <= appender.maxRetries) {
+            appender.metrics.onRetry();
+            batch.setNextAttemptNanos(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getRetryDelay(batch.getRetries())));
+        }
+    }
+
+    /**
+     * Changes the number of batches sent in parallel, starting threads to send them if needed. Called only by the
+     * thread flushing, between flushes.
+     */
+    protected void resizeInFlightBatches(int limit) {
+        int current = inFlightLimit;
+        if (limit == current)
+            return;
+
+        if (limit > current) {
+            if (appender.senderExecutorService == null) {
+                appender.senderExecutorService = Executors.newFixedThreadPool(limit, appender.threadFactory);
+            } else if (appender.senderExecutorService instanceof ThreadPoolExecutor) {
+                ((ThreadPoolExecutor) appender.senderExecutorService).setMaximumPoolSize(limit);
+                ((ThreadPoolExecutor) appender.senderExecutorService).setCorePoolSize(limit);
+            }
+            inFlightBatches.release(limit - current);
+        } else {
+            inFlightBatches.reducePermits(current - limit);
+            if (appender.senderExecutorService instanceof ThreadPoolExecutor) {
+                ((ThreadPoolExecutor) appender.senderExecutorService).setCorePoolSize(limit);
+                ((ThreadPoolExecutor) appender.senderExecutorService).setMaximumPoolSize(limit);
+            }
+        }
+        inFlightLimit = limit;
+    }
+}
@@ -0,0 +1,101 @@
+package com.logtail.logback;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values, in buckets of powers of two. Recording is a couple of striped counter
+ * increments, percentiles are approximated by the upper bound of their bucket.
+ */
+public class LogtailHistogram {
+
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LogtailHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        // Bucket i holds values of i significant bits
+        buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public Snapshot getSnapshot() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        long maximum = max.get();
+        return new Snapshot(total, total > 0 ? (double) sum.sum() / total : 0, maximum,
+                percentile(counts, total, 0.5, maximum), percentile(counts, total, 0.9, maximum), percentile(counts, total, 0.99, maximum));
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long maximum) {
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return Math.min((1L << i) - 1, maximum);
+        }
+        return 0;
+    }
+
+    /**
+     * Values recorded so far.
+     */
+    public static class Snapshot {
+        private final long count;
+        private final double mean;
+        private final long max;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+
+        public Snapshot(long count, double mean, long max, long p50, long p90, long p99) {
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.logtail.logback;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MDC fields sent as metadata, compiled once from <i>mdcFields</i> and <i>mdcTypes</i> into typed converters.
+ * <p>
+ * Only the configured keys are looked up in an event's MDC. Values which can't be converted to their type are sent
+ * as strings - failures are counted, and reported by the sender thread at most once a minute instead of for every
+ * event. Serialization may run on logging threads, eg. when spilling over, which must not log themselves.
+ */
+public class LogtailMdcSchema {
+
+    private static final long FAILURE_WARNING_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    public enum Type {
+        STRING,
+        INT,
+        LONG,
+        DOUBLE,
+        BOOLEAN,
+        /**
+         * Milliseconds since the epoch, or an ISO-8601 date-time - sent as an ISO-8601 UTC instant.
+         */
+        TIMESTAMP,
+        /**
+         * A JSON document, sent as a nested value.
+         */
+        JSON;
+
+        /**
+         * @return the type of the given <i>mdcTypes</i> name, <i>STRING</i> for unknown names
+         */
+        public static Type of(String name) {
+            switch (name.trim()) {
+                case "int":
+                    return INT;
+                case "long":
+                    return LONG;
+                case "double":
+                    return DOUBLE;
+                case "boolean":
+                    return BOOLEAN;
+                case "timestamp":
+                    return TIMESTAMP;
+                case "json":
+                    return JSON;
+                default:
+                    return STRING;
+            }
+        }
+    }
+
+    private final String[] fields;
+    private final SerializableString[] fieldNames;
+    private final Type[] types;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final ObjectMapper mapper;
+
+    private final LongAdder conversionFailures = new LongAdder();
+    private final AtomicLong reportedFailures = new AtomicLong();
+    private final AtomicLong nextWarningNanos = new AtomicLong(System.nanoTime());
+    private volatile String lastFailedValue;
+    private volatile Type lastFailedType;
+
+    public LogtailMdcSchema(LogtailAppender appender) {
+        this.mapper = appender.dataMapper;
+
+        List<String> mdcFields = appender.mdcFields;
+        this.fields = mdcFields.toArray(new String[0]);
+        this.fieldNames = new SerializableString[fields.length];
+        this.types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fieldNames[i] = new SerializedString(fields[i]);
+            types[i] = i < appender.mdcTypes.size() ? Type.of(appender.mdcTypes.get(i)) : Type.STRING;
+            indexes.put(fields[i], i);
+        }
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+    public String getField(int index) {
+        return fields[index];
+    }
+
+    public SerializableString getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    public Type getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * @return the type of the MDC field, or <i>null</i> if it isn't sent
+     */
+    public Type getType(String field) {
+        Integer index = indexes.get(field);
+        return index != null ? types[index] : null;
+    }
+
+    /**
+     * Adds the configured fields present in the MDC to the metadata.
+     */
+    public void putValues(Map<String, String> mdc, Map<String, Object> logMeta) {
+        if (mdc == null || mdc.isEmpty())
+            return;
+
+        for (int i = 0; i < fields.length; i++) {
+            String value = mdc.get(fields[i]);
+            if (value != null) {
+                logMeta.put(fields[i], convert(types[i], value));
+            }
+        }
+    }
+
+    /**
+     * Writes the configured fields present in the MDC as fields of the current JSON object.
+     */
+    public void writeValues(Map<String, String> mdc, JsonGenerator generator) throws IOException {
+        if (mdc == null || mdc.isEmpty())
+            return;
+
+        for (int i = 0; i < fields.length; i++) {
+            String value = mdc.get(fields[i]);
+            if (value != null) {
+                generator.writeFieldName(fieldNames[i]);
+                write(types[i], value, generator);
+            }
+        }
+    }
+
+    /**
+     * @return the value converted to the type, or the value itself if it can't be converted
+     */
+    public Object convert(Type type, String value) {
+        try {
+            switch (type) {
+                case INT:
+                    return Integer.valueOf(value);
+                case LONG:
+                    return Long.valueOf(value);
+                case DOUBLE:
+                    return Double.valueOf(value);
+                case BOOLEAN:
+                    return Boolean.valueOf(value);
+                case TIMESTAMP:
+                    return parseTimestamp(value).toString();
+                case JSON:
+                    return mapper.readTree(value);
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException | DateTimeParseException | IOException e) {
+            onConversionFailure(type, value);
+            return value;
+        }
+    }
+
+    private void write(Type type, String value, JsonGenerator generator) throws IOException {
+        try {
+            switch (type) {
+                case INT:
+                    generator.writeNumber(Integer.parseInt(value));
+                    return;
+                case LONG:
+                    generator.writeNumber(Long.parseLong(value));
+                    return;
+                case DOUBLE:
+                    generator.writeNumber(Double.parseDouble(value));
+                    return;
+                case BOOLEAN:
+                    generator.writeBoolean(Boolean.parseBoolean(value));
+                    return;
+                case TIMESTAMP:
+                    generator.writeString(parseTimestamp(value).toString());
+                    return;
+                case JSON:
+                    // Parsed first, so that an invalid document doesn't corrupt the batch
+                    JsonNode node = mapper.readTree(value);
+                    mapper.writeTree(generator, node);
+                    return;
+            }
+        } catch (NumberFormatException | DateTimeParseException | IOException e) {
+            onConversionFailure(type, value);
+        }
+        generator.writeString(value);
+    }
+
+    private static Instant parseTimestamp(String value) {
+        if (!value.isEmpty() && (Character.isDigit(value.charAt(0)) || value.charAt(0) == '-') && value.indexOf('T') < 0)
+            return Instant.ofEpochMilli(Long.parseLong(value));
+        return OffsetDateTime.parse(value).toInstant();
+    }
+
+    private void onConversionFailure(Type type, String value) {
+        conversionFailures.increment();
+        lastFailedValue = value;
+        lastFailedType = type;
+    }
+
+    /**
+     * Warns about values which couldn't be converted since the previous warning, unless it was less than a minute ago.
+     */
+    public void reportConversionFailures(Logger logger) {
+        long now = System.nanoTime();
+        long next = nextWarningNanos.get();
+        if (now - next < 0 || conversionFailures.sum() == reportedFailures.get())
+            return;
+
+        if (nextWarningNanos.compareAndSet(next, now + FAILURE_WARNING_INTERVAL_NANOS)) {
+            long failures = conversionFailures.sum();
+            long sinceLastWarning = failures - reportedFailures.getAndSet(failures);
+            logger.warn("Sending {} MDC values which couldn't be converted to their type as strings, eg. '{}' as {}",
+                    sinceLastWarning, lastFailedValue, lastFailedType.name().toLowerCase());
+        }
+    }
+
+    /**
+     * Number of MDC values which couldn't be converted to their type.
+     */
+    public long getConversionFailures() {
+        return conversionFailures.sum();
+    }
+}
@@ -0,0 +1,264 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and histograms of the appender's pipeline. Counters are striped, so that updating them from the
+ * logging threads is cheap.
+ */
+public class LogtailMetrics implements LogtailMetricsMXBean {
+
+    public enum DropReason {
+        /**
+         * Neither the in-memory queue nor the spillover had room for the event.
+         */
+        QUEUE_FULL,
+        /**
+         * The queued event made room for a newer one, with the <i>DROP_OLDEST</i> overflow policy.
+         */
+        EVICTED,
+        /**
+         * The event's level was shed, with the <i>SHED_LOWEST_LEVEL</i> overflow policy.
+         */
+        SHED,
+        /**
+         * The logging thread waited for room in vain, with the <i>BLOCK</i> overflow policy.
+         */
+        BLOCK_TIMEOUT,
+        /**
+         * The event was sent as part of a collapsed burst.
+         */
+        COLLAPSED,
+        RATE_LIMITED,
+        SAMPLED_OUT,
+        /**
+         * The event's batch ran out of retries.
+         */
+        MAX_RETRIES,
+        /**
+         * The event was neither sent nor moved to the spillover within the shutdown timeout.
+         */
+        SHUTDOWN
+    }
+
+    private final LogtailAppender appender;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder[] dropped = new LongAdder[DropReason.values().length];
+    private final LongAdder sentEvents = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder sentUncompressedBytes = new LongAdder();
+    private final LongAdder sentBatches = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+
+    private final LogtailHistogram serializationMicros = new LogtailHistogram();
+    private final LogtailHistogram roundTripMillis = new LogtailHistogram();
+    private final LogtailHistogram eventAgeMillis = new LogtailHistogram();
+    private final LogtailHistogram blockedMillis = new LogtailHistogram();
+
+    public LogtailMetrics(LogtailAppender appender) {
+        this.appender = appender;
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = new LongAdder();
+        }
+    }
+
+    public void onEnqueued() {
+        enqueued.increment();
+    }
+
+    public void onDropped(DropReason reason, int events) {
+        dropped[reason.ordinal()].add(events);
+    }
+
+    public void onRetry() {
+        retries.increment();
+    }
+
+    public void onFailedRequest() {
+        failedRequests.increment();
+    }
+
+    public void onSerialized(long nanos) {
+        serializationMicros.record(nanos / 1000);
+    }
+
+    public void onRoundTrip(long nanos) {
+        roundTripMillis.record(nanos / 1000000);
+    }
+
+    public void onBlocked(long nanos) {
+        blockedMillis.record(nanos / 1000000);
+    }
+
+    /**
+     * Records a batch sent successfully.
+     */
+    public void onSent(LogtailBatch batch) {
+        sentBatches.increment();
+        sentEvents.add(batch.size());
+        sentBytes.add(batch.getBodyBytes());
+        sentUncompressedBytes.add(batch.getUncompressedBodyBytes());
+
+        long now = System.currentTimeMillis();
+        List<ILoggingEvent> events = batch.getEvents();
+        for (int i = 0; i < events.size(); i++) {
+            eventAgeMillis.record(now - events.get(i).getTimeStamp());
+        }
+    }
+
+    public long getDroppedEvents(DropReason reason) {
+        switch (reason) {
+            case RATE_LIMITED:
+                return appender.getRateLimitedEvents();
+            case SAMPLED_OUT:
+                return appender.getSampledOutEvents();
+            default:
+                return dropped[reason.ordinal()].sum();
+        }
+    }
+
+    @Override
+    public long getEnqueuedEvents() {
+        return enqueued.sum();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedEvents() {
+        Map<String, Long> droppedEvents = new LinkedHashMap<>();
+        for (DropReason reason : DropReason.values()) {
+            droppedEvents.put(reason.name(), getDroppedEvents(reason));
+        }
+        return droppedEvents;
+    }
+
+    @Override
+    public long getSentEvents() {
+        return sentEvents.sum();
+    }
+
+    @Override
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    @Override
+    public long getSentUncompressedBytes() {
+        return sentUncompressedBytes.sum();
+    }
+
+    @Override
+    public long getSentBatches() {
+        return sentBatches.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    @Override
+    public long getUntrackedBurstEvents() {
+        return appender.getUntrackedBurstEvents();
+    }
+
+    @Override
+    public long getStringCacheHits() {
+        return appender.getStringCacheHits();
+    }
+
+    @Override
+    public long getStringCacheMisses() {
+        return appender.getStringCacheMisses();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return appender.queue.size();
+    }
+
+    @Override
+    public int getPriorityQueueSize() {
+        return appender.getPriorityQueueSize();
+    }
+
+    @Override
+    public long getQueueBytes() {
+        return appender.getQueueBytes();
+    }
+
+    @Override
+    public int getInFlightBatches() {
+        LogtailFlusher flusher = appender.flusher;
+        return Math.max(0, flusher.inFlightLimit - flusher.inFlightBatches.availablePermits());
+    }
+
+    @Override
+    public int getRetryBatches() {
+        return appender.flusher.retryBatches.size();
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        return appender.circuitBreaker.getState().name();
+    }
+
+    @Override
+    public int getBatchSize() {
+        return appender.getEffectiveBatchSize();
+    }
+
+    @Override
+    public int getBatchInterval() {
+        return appender.getEffectiveBatchInterval();
+    }
+
+    @Override
+    public LogtailHistogram.Snapshot getSerializationMicros() {
+        return serializationMicros.getSnapshot();
+    }
+
+    @Override
+    public LogtailHistogram.Snapshot getRoundTripMillis() {
+        return roundTripMillis.getSnapshot();
+    }
+
+    @Override
+    public LogtailHistogram.Snapshot getEventAgeMillis() {
+        return eventAgeMillis.getSnapshot();
+    }
+
+    @Override
+    public boolean isCatchUp() {
+        LogtailCatchUp catchUp = appender.catchUp;
+        return catchUp != null && catchUp.isActive();
+    }
+
+    @Override
+    public double getCatchUpDrainRate() {
+        LogtailCatchUp catchUp = appender.catchUp;
+        return catchUp != null ? catchUp.getDrainRate() : Double.NaN;
+    }
+
+    @Override
+    public long getCatchUpEtaMillis() {
+        LogtailCatchUp catchUp = appender.catchUp;
+        return catchUp != null ? catchUp.getEtaMillis() : -1;
+    }
+
+    @Override
+    public LogtailHistogram.Snapshot getBlockedMillis() {
+        return blockedMillis.getSnapshot();
+    }
+}
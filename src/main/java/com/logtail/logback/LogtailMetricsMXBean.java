@@ -0,0 +1,118 @@
+package com.logtail.logback;
+
+import java.util.Map;
+
+/**
+ * Metrics of the appender's pipeline, registered as an MXBean when <i>jmx</i> is enabled and available through
+ * {@link LogtailAppender#getMetrics()} otherwise.
+ */
+public interface LogtailMetricsMXBean {
+
+    /**
+     * Number of events added to the in-memory queue.
+     */
+    long getEnqueuedEvents();
+
+    /**
+     * Number of events dropped, by reason.
+     */
+    Map<String, Long> getDroppedEvents();
+
+    long getSentEvents();
+
+    /**
+     * Number of bytes of request bodies sent successfully, after compression.
+     */
+    long getSentBytes();
+
+    /**
+     * Number of bytes of request bodies sent successfully, before compression.
+     */
+    long getSentUncompressedBytes();
+
+    long getSentBatches();
+
+    /**
+     * Number of retries scheduled for failed batches.
+     */
+    long getRetries();
+
+    /**
+     * Number of calls to Better Stack which failed or were answered by an error status.
+     */
+    long getFailedRequests();
+
+    /**
+     * Number of events not checked for bursts, as the number of message templates tracked by the burst collapsing was
+     * at its limit.
+     */
+    long getUntrackedBurstEvents();
+
+    /**
+     * Number of logger, thread and caller names written from the cache of encoded strings.
+     */
+    long getStringCacheHits();
+
+    /**
+     * Number of logger, thread and caller names which had to be encoded, as they weren't in the cache of encoded
+     * strings.
+     */
+    long getStringCacheMisses();
+
+    int getQueueSize();
+
+    int getPriorityQueueSize();
+
+    long getQueueBytes();
+
+    int getInFlightBatches();
+
+    int getRetryBatches();
+
+    String getCircuitBreakerState();
+
+    /**
+     * Batch size in effect, adjusted by the adaptive batching if enabled.
+     */
+    int getBatchSize();
+
+    /**
+     * Batch interval in effect, adjusted by the adaptive batching if enabled [ms].
+     */
+    int getBatchInterval();
+
+    /**
+     * Time to write request bodies, including compression [µs].
+     */
+    LogtailHistogram.Snapshot getSerializationMicros();
+
+    /**
+     * Time of calls to Better Stack, from sending the request to receiving the response [ms].
+     */
+    LogtailHistogram.Snapshot getRoundTripMillis();
+
+    /**
+     * Age of events when sent successfully, from being logged [ms].
+     */
+    LogtailHistogram.Snapshot getEventAgeMillis();
+
+    /**
+     * Whether a backlog is being caught up on, with larger batches and more parallel requests.
+     */
+    boolean isCatchUp();
+
+    /**
+     * Net number of events per second the backlog shrinks by while catching up, NaN if unknown.
+     */
+    double getCatchUpDrainRate();
+
+    /**
+     * Estimated time to clear the backlog while catching up [ms], -1 if unknown.
+     */
+    long getCatchUpEtaMillis();
+
+    /**
+     * Time logging threads waited for room in the queue, with the <i>BLOCK</i> overflow policy [ms].
+     */
+    LogtailHistogram.Snapshot getBlockedMillis();
+}
@@ -0,0 +1,42 @@
+package com.logtail.logback;
+
+import java.util.Locale;
+
+/**
+ * What the appender does with an event when the queue is full, and the spillover, if enabled, has no room either.
+ */
+public enum LogtailOverflowPolicy {
+    /**
+     * The new event is dropped.
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest queued events are dropped to make room for the new one, so that the most recent context survives.
+     */
+    DROP_OLDEST,
+    /**
+     * The logging thread waits up to <i>overflowBlockTimeout</i> for the sender to make room, then the new event is
+     * dropped.
+     */
+    BLOCK,
+    /**
+     * Low level events are dropped while the queue is filling up, keeping its remaining room for higher levels -
+     * <i>TRACE</i> from 50%, <i>DEBUG</i> from 70%, <i>INFO</i> from 85% and <i>WARN</i> from 95% of the queue size
+     * or bytes.
+     */
+    SHED_LOWEST_LEVEL;
+
+    /**
+     * Parses the policy name, ignoring case and accepting dashes for underscores, eg. <i>drop-oldest</i>.
+     *
+     * @return the policy, or <i>null</i> if the name is unknown
+     */
+    public static LogtailOverflowPolicy of(String name) {
+        String normalized = name.trim().replace('-', '_').toUpperCase(Locale.ROOT);
+        for (LogtailOverflowPolicy policy : values()) {
+            if (policy.name().equals(normalized))
+                return policy;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,294 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits and samples events by logger name prefix and level, before they enter the queue.
+ * <p>
+ * Rules are written as <i>prefix[:LEVEL]=value</i>, separated by commas. A prefix matches the logger of the same
+ * name and its descendants, <i>*</i> matches all loggers. A rule with a level applies to events of that level and
+ * below, a rule without one to all levels. For each event the rule of the longest matching prefix applies, and a
+ * rule with a level takes precedence over one without for the same prefix.
+ * <p>
+ * Rules are compiled into an immutable trie of logger name characters, so that an event is matched by a single walk
+ * of its logger name without any lock or allocation. Token buckets are a single atomic theoretical arrival time.
+ */
+public class LogtailRateLimiter {
+
+    private static final int LEVELS = 5;
+
+    private final Node root;
+    private final List<Rule> rules = new ArrayList<>();
+    private final long summaryIntervalNanos;
+    private final AtomicLong nextSummaryNanos;
+
+    /**
+     * @param rateLimits
+     *            rules whose value is the number of events per second, also allowed as a burst
+     * @param samplingRatios
+     *            rules whose value is the ratio of events kept, between 0 and 1
+     * @param summaryIntervalMilliseconds
+     *            minimal interval between summaries of suppressed events
+     */
+    public LogtailRateLimiter(String rateLimits, String samplingRatios, long summaryIntervalMilliseconds) {
+        this.summaryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(summaryIntervalMilliseconds);
+        this.nextSummaryNanos = new AtomicLong(System.nanoTime() + summaryIntervalNanos);
+
+        Builder builder = new Builder();
+        parse(rateLimits, false, builder);
+        parse(samplingRatios, true, builder);
+        this.root = builder.build();
+    }
+
+    private void parse(String definitions, boolean sampling, Builder builder) {
+        if (definitions == null)
+            return;
+
+        for (String definition : definitions.split(",")) {
+            if (definition.trim().isEmpty())
+                continue;
+
+            int separator = definition.lastIndexOf('=');
+            if (separator < 0)
+                throw new IllegalArgumentException("Invalid rule '" + definition.trim() + "', expected prefix[:LEVEL]=value");
+
+            String key = definition.substring(0, separator).trim();
+            double value = Double.parseDouble(definition.substring(separator + 1).trim());
+            Level level = null;
+            int levelSeparator = key.indexOf(':');
+            if (levelSeparator >= 0) {
+                level = Level.toLevel(key.substring(levelSeparator + 1).trim(), null);
+                if (level == null || levelIndex(level) < 0)
+                    throw new IllegalArgumentException("Invalid level in rule '" + definition.trim() + "'");
+                key = key.substring(0, levelSeparator).trim();
+            }
+            if (key.equals("*")) {
+                key = "";
+            }
+            if (sampling ? value < 0 || value > 1 : value <= 0)
+                throw new IllegalArgumentException("Invalid value in rule '" + definition.trim() + "'");
+
+            Rule rule = new Rule(key, level, sampling, value);
+            rules.add(rule);
+            builder.add(rule);
+        }
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Decides whether the event is kept, and counts it as suppressed otherwise. Lock-free.
+     *
+     * @return <i>false</i> if the event is sampled out or rate limited
+     */
+    public boolean tryAcquire(ILoggingEvent event) {
+        int level = levelIndex(event.getLevel());
+        if (level < 0)
+            return true;
+
+        String name = event.getLoggerName();
+        Rule limit = root.limits[level];
+        Rule sampling = root.samplings[level];
+
+        Node node = root;
+        for (int i = 0; i < name.length() && node != null; i++) {
+            node = node.child(name.charAt(i));
+            if (node != null && (i + 1 == name.length() || name.charAt(i + 1) == '.')) {
+                if (node.limits[level] != null)
+                    limit = node.limits[level];
+                if (node.samplings[level] != null)
+                    sampling = node.samplings[level];
+            }
+        }
+
+        if (sampling != null && !sampling.sample())
+            return false;
+        return limit == null || limit.tryAcquire();
+    }
+
+    /**
+     * Whether the summary interval elapsed, claiming the summary for the caller.
+     */
+    public boolean isSummaryDue() {
+        long now = System.nanoTime();
+        long next = nextSummaryNanos.get();
+        return now - next >= 0 && nextSummaryNanos.compareAndSet(next, now + summaryIntervalNanos);
+    }
+
+    /**
+     * Messages and arguments describing events suppressed since the previous summary, one per rule.
+     */
+    public List<Object[]> pollSummary() {
+        List<Object[]> summary = new ArrayList<>();
+        for (Rule rule : rules) {
+            long suppressed = rule.pollSuppressed();
+            if (suppressed > 0) {
+                String target = rule.prefix.isEmpty() ? "*" : rule.prefix;
+                String levels = rule.level != null ? rule.level + " and below" : "all levels";
+                summary.add(rule.sampling
+                        ? new Object[]{ "Sampling ratio {} of logger '{}' ({}) dropped {} events", rule.value, target, levels, suppressed }
+                        : new Object[]{ "Rate limit of {} events/s of logger '{}' ({}) dropped {} events", rule.value, target, levels, suppressed });
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Total number of events dropped by rate limits.
+     */
+    public long getRateLimited() {
+        return rules.stream().filter(rule -> !rule.sampling).mapToLong(rule -> rule.suppressed.sum()).sum();
+    }
+
+    /**
+     * Total number of events dropped by sampling.
+     */
+    public long getSampledOut() {
+        return rules.stream().filter(rule -> rule.sampling).mapToLong(rule -> rule.suppressed.sum()).sum();
+    }
+
+    private static int levelIndex(Level level) {
+        switch (level.toInt()) {
+            case Level.TRACE_INT:
+                return 0;
+            case Level.DEBUG_INT:
+                return 1;
+            case Level.INFO_INT:
+                return 2;
+            case Level.WARN_INT:
+                return 3;
+            case Level.ERROR_INT:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    private static class Rule {
+        final String prefix;
+        final Level level;
+        final boolean sampling;
+        final double value;
+
+        // Token bucket as a generic cell rate algorithm - the time at which the bucket would be full again
+        final long emissionIntervalNanos;
+        final long burstToleranceNanos;
+        final AtomicLong theoreticalArrivalNanos = new AtomicLong(System.nanoTime());
+
+        final LongAdder suppressed = new LongAdder();
+        final AtomicLong reported = new AtomicLong();
+
+        Rule(String prefix, Level level, boolean sampling, double value) {
+            this.prefix = prefix;
+            this.level = level;
+            this.sampling = sampling;
+            this.value = value;
+            this.emissionIntervalNanos = sampling ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / value);
+            this.burstToleranceNanos = sampling ? 0 : emissionIntervalNanos * Math.max(0, (long) Math.ceil(value) - 1);
+        }
+
+        boolean tryAcquire() {
+            long now = System.nanoTime();
+            while (true) {
+                long arrival = theoreticalArrivalNanos.get();
+                long base = arrival - now > 0 ? arrival : now;
+                if (base - now > burstToleranceNanos) {
+                    suppressed.increment();
+                    return false;
+                }
+                if (theoreticalArrivalNanos.compareAndSet(arrival, base + emissionIntervalNanos))
+                    return true;
+            }
+        }
+
+        boolean sample() {
+            if (value >= 1 || ThreadLocalRandom.current().nextDouble() < value)
+                return true;
+            suppressed.increment();
+            return false;
+        }
+
+        long pollSuppressed() {
+            long total = suppressed.sum();
+            return total - reported.getAndSet(total);
+        }
+    }
+
+    private static class Node {
+        final char[] keys;
+        final Node[] children;
+        final Rule[] limits;
+        final Rule[] samplings;
+
+        Node(char[] keys, Node[] children, Rule[] limits, Rule[] samplings) {
+            this.keys = keys;
+            this.children = children;
+            this.limits = limits;
+            this.samplings = samplings;
+        }
+
+        Node child(char key) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] < key) {
+                    low = middle + 1;
+                } else if (keys[middle] > key) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Builder {
+        final TreeMap<Character, Builder> children = new TreeMap<>();
+        final List<Rule> rules = new ArrayList<>();
+
+        void add(Rule rule) {
+            Builder builder = this;
+            for (int i = 0; i < rule.prefix.length(); i++) {
+                builder = builder.children.computeIfAbsent(rule.prefix.charAt(i), key -> new Builder());
+            }
+            builder.rules.add(rule);
+        }
+
+        Node build() {
+            Rule[] limits = new Rule[LEVELS];
+            Rule[] samplings = new Rule[LEVELS];
+            // Rules without level first, then from the highest level down, so that the narrowest rule wins
+            rules.sort((a, b) -> a.level == null ? (b.level == null ? 0 : -1) : b.level == null ? 1 : b.level.toInt() - a.level.toInt());
+            for (Rule rule : rules) {
+                Rule[] target = rule.sampling ? samplings : limits;
+                int maxLevel = rule.level != null ? levelIndex(rule.level) : LEVELS - 1;
+                for (int level = 0; level <= maxLevel; level++) {
+                    target[level] = rule;
+                }
+            }
+
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> child : children.entrySet()) {
+                keys[i] = child.getKey();
+                nodes[i++] = child.getValue().build();
+            }
+            return new Node(keys, nodes, limits, samplings);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.logtail.logback;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Semaphore whose number of permits can be lowered without waiting for them to be released. Bounds the batches in
+ * flight, whose limit changes while catching up on a backlog and while draining on shutdown.
+ */
+public class LogtailResizableSemaphore extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    public LogtailResizableSemaphore(int permits) {
+        super(permits);
+    }
+
+    @Override
+    public void reducePermits(int reduction) {
+        super.reducePermits(reduction);
+    }
+}
@@ -0,0 +1,151 @@
+package com.logtail.logback;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer used as the appender's message queue.
+ * <p>
+ * Every slot carries its own sequence number (Disruptor / Vyukov style), so producers claim a slot with a single
+ * CAS on the enqueue position and never block - when the buffer is full, {@link #offer(Object)} simply returns
+ * <i>false</i>. Consumers drain in FIFO order without shifting any memory.
+ * <p>
+ * Consumers claim slots with a CAS as well, as there can be several of them: logging threads evict the oldest
+ * events under the <i>drop-oldest</i> overflow policy while the sender drains, and stop() drains what is left while
+ * batches of a drain it gave up on may still be claimed.
+ *
+ * @param <E> element type
+ */
+public class LogtailRingBuffer<E> {
+
+    private final int limit;
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    /**
+     * @param limit
+     *            maximum number of elements held by the buffer
+     */
+    public LogtailRingBuffer(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Ring buffer limit must be positive, got " + limit);
+
+        int capacity = 1;
+        while (capacity < limit)
+            capacity <<= 1;
+
+        this.limit = limit;
+        this.mask = capacity - 1;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * Appends the element at the tail of the buffer.
+     *
+     * @return <i>false</i> if the buffer is full and the element was not added
+     */
+    public boolean offer(E element) {
+        if (element == null)
+            throw new NullPointerException();
+
+        while (true) {
+            long position = enqueuePosition.get();
+            if (position - dequeuePosition.get() >= limit)
+                return false;
+
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // Slot not yet released by a consumer lagging a full lap behind
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Removes the element at the head of the buffer.
+     *
+     * @return the removed element, or <i>null</i> if the buffer is empty
+     */
+    public E poll() {
+        while (true) {
+            long position = dequeuePosition.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position + 1) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.lazySet(index, position + mask + 1);
+                    return element;
+                }
+            } else if (sequence <= position) {
+                if (position == enqueuePosition.get())
+                    return null;
+                // Slot claimed by a producer which has not published its element yet
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Returns the element at the head of the buffer without removing it. With concurrent consumers, the element may
+     * have been removed already by the time it is returned.
+     *
+     * @return the head element, or <i>null</i> if the buffer is empty
+     */
+    public E peek() {
+        long position = dequeuePosition.get();
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1)
+            return null;
+        return elements.get(index);
+    }
+
+    /**
+     * Moves up to <i>maxElements</i> elements from the head of the buffer into the given collection.
+     *
+     * @return number of elements moved
+     */
+    public int drainTo(Collection<? super E> target, int maxElements) {
+        int drained = 0;
+        while (drained < maxElements) {
+            E element = poll();
+            if (element == null)
+                break;
+            target.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Current number of elements in the buffer. Only two volatile reads, no locking.
+     */
+    public int size() {
+        long size = enqueuePosition.get() - dequeuePosition.get();
+        return (int) Math.max(0, Math.min(size, limit));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
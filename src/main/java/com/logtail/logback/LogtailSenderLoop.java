@@ -0,0 +1,167 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Long-lived sender loop of the appender. It parks until there is something to send - producers wake it up once a full
+ * batch is queued, or when a priority event has to be sent before the sender would wake up by itself.
+ */
+public class LogtailSenderLoop implements Runnable {
+
+    private final LogtailAppender appender;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private volatile boolean parked = false;
+    private volatile long parkedUntilNanos = System.nanoTime();
+
+    public LogtailSenderLoop(LogtailAppender appender) {
+        this.appender = appender;
+        this.thread = appender.threadFactory.newThread(this);
+        this.thread.setName("logtail-appender-sender");
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the loop, letting the flush in progress finish.
+     *
+     * @param timeoutMillis
+     *            time to wait for the flush in progress [ms], 0 to wait until it's done
+     */
+    public void stop(long timeoutMillis) throws InterruptedException {
+        running = false;
+        wake();
+        thread.join(timeoutMillis);
+    }
+
+    public boolean isAlive() {
+        return thread.isAlive();
+    }
+
+    /**
+     * Whether the calling thread is the sender's, eg. flushing the queue.
+     */
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Whether the sender is waiting for something to send, until {@link #getParkedUntilNanos()}.
+     */
+    public boolean isParked() {
+        return parked;
+    }
+
+    public long getParkedUntilNanos() {
+        return parkedUntilNanos;
+    }
+
+    /**
+     * Wakes up the sender, so that it re-evaluates whether there is something to send.
+     */
+    public void wake() {
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                appender.reportSuppressedEvents(false);
+                appender.reportMdcConversionFailures();
+                appender.sendCollapsedBursts(false);
+
+                long delay = getDelayNanos();
+                if (delay <= 0 && appender.flusher.isFlushing.get()) {
+                    // Flush running outside of the sender, eg. called explicitly, which wakes the sender once done
+                    delay = getRequestTimeoutNanos();
+                }
+
+                if (delay > 0) {
+                    parkedUntilNanos = System.nanoTime() + delay;
+                    parked = true;
+                    // Re-evaluated once parked is published, so that no wake-up from append can be missed
+                    delay = getDelayNanos();
+                    if (delay > 0 && running) {
+                        LockSupport.parkNanos(this, delay);
+                    }
+                    parked = false;
+                    continue;
+                }
+
+                appender.flush();
+            } catch (Exception e) {
+                appender.logger.error("Error trying to flush : {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Time until the sender has something to send - a full batch, the oldest queued event lingering for
+     * <i>batchInterval</i>, the oldest priority event lingering for <i>priorityBatchInterval</i>, a burst of priority
+     * events to hand over, a batch due for retry or spilled over events to replay. While a batch waits for a retry,
+     * only the retry and priority events count.
+     *
+     * @return nanoseconds to wait, 0 or less to send right away
+     */
+    protected long getDelayNanos() {
+        LogtailCircuitBreaker circuitBreaker = appender.circuitBreaker;
+        if (!circuitBreaker.isCallPermitted()) {
+            // The probe call is made by a flush, which wakes the sender once done
+            if (circuitBreaker.getState() == LogtailCircuitBreaker.State.HALF_OPEN)
+                return getRequestTimeoutNanos();
+            return Math.max(circuitBreaker.getRemainingOpenNanos(), TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        LogtailRingBuffer<ILoggingEvent> queue = appender.queue;
+        LogtailRingBuffer<ILoggingEvent> lane = appender.priorityQueue;
+        boolean retrying = !appender.flusher.retryBatches.isEmpty();
+        if ((retrying ? 0 : queue.size()) + (lane != null ? lane.size() : 0) >= appender.getEffectiveBatchSize())
+            return 0;
+
+        int batchInterval = appender.getEffectiveBatchInterval();
+        long now = System.nanoTime();
+        long delay = TimeUnit.MILLISECONDS.toNanos(batchInterval);
+
+        ILoggingEvent oldest = retrying ? null : queue.peek();
+        if (oldest != null) {
+            delay = Math.min(delay, TimeUnit.MILLISECONDS.toNanos(oldest.getTimeStamp() + batchInterval - System.currentTimeMillis()));
+        }
+        ILoggingEvent oldestPriority = lane != null ? lane.peek() : null;
+        if (oldestPriority != null) {
+            delay = Math.min(delay, TimeUnit.MILLISECONDS.toNanos(oldestPriority.getTimeStamp() + appender.priorityBatchInterval - System.currentTimeMillis()));
+        }
+        LogtailBatch retryBatch = appender.flusher.peekRetryBatch();
+        if (retryBatch != null) {
+            delay = Math.min(delay, retryBatch.getNextAttemptNanos() - now);
+        }
+        LogtailBurstCollapser collapser = appender.burstCollapser;
+        Level priority = appender.priorityLevel;
+        if (collapser != null && lane != null && priority != null) {
+            long windowEnd = collapser.getNextWindowEnd(priority);
+            if (windowEnd != Long.MAX_VALUE) {
+                delay = Math.min(delay, TimeUnit.MILLISECONDS.toNanos(windowEnd - System.currentTimeMillis()));
+            }
+        }
+        LogtailSpillover disk = appender.spillover;
+        if (!retrying && disk != null && disk.hasPendingRecords()) {
+            delay = Math.min(delay, appender.flusher.lastFlushNanos + TimeUnit.MILLISECONDS.toNanos(batchInterval) - now);
+        }
+        return delay;
+    }
+
+    /**
+     * Longest time a single request to Better Stack may take, after which the sender re-evaluates in case it missed
+     * the wake-up of a flush running outside of it.
+     */
+    protected long getRequestTimeoutNanos() {
+        return TimeUnit.MILLISECONDS.toNanos((long) appender.connectTimeout + appender.readTimeout);
+    }
+}
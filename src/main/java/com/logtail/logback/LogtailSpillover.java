@@ -0,0 +1,386 @@
+package com.logtail.logback;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Disk spillover stage for events which don't fit into the in-memory queue, eg. during an ingest outage.
+ * <p>
+ * Serialized events are appended to fixed-size memory-mapped segment files in the configured directory. Each
+ * segment starts with a header holding the offset of the last acknowledged record, so that after a JVM restart the
+ * sender resumes replaying from the first record which wasn't delivered yet. Records are <i>[int length][bytes]</i>,
+ * the length being written last so that a torn record reads as the end of the segment. Segments are deleted once
+ * all their records are acknowledged. The total size of segments is capped by <i>maxBytes</i>.
+ * <p>
+ * Several batches can be read ahead and sent in parallel. They may be acknowledged in any order, the acknowledged
+ * offset only moves past those delivered contiguously from the oldest one. Rewinding starts over from that offset,
+ * so records of batches delivered after a failed one are sent again.
+ * <p>
+ * Dirty pages of mapped files are written out by the OS even if the JVM dies, so resuming is guaranteed after a
+ * process crash. Segments are only forced to the device when rolled over, on acknowledgement and on close - after an
+ * OS crash or a power loss, records written since, or a newer acknowledgement, may be lost.
+ * <p>
+ * On Windows a mapped file can't be deleted until the mapping is garbage collected. A consumed segment is marked as
+ * such before being deleted, so if that fails it is skipped rather than replayed again, and deleted after a restart.
+ * <p>
+ * All methods but the counters are synchronized. Writes happen on the logging threads: once the queue reached its
+ * high-water mark, every appended event is serialized and written here until the spillover is replayed, so that
+ * events stay in order - logging is then bound by this lock rather than by the lock-free queue.
+ */
+public class LogtailSpillover {
+
+    private static final int MAGIC = 0x4C545350; // "LTSP"
+    private static final int HEADER_SIZE = 16;
+    private static final int ACK_OFFSET_POSITION = 8;
+    private static final String SEGMENT_PREFIX = "logtail-spillover-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final byte format;
+    private final Logger logger;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment readSegment;
+    private int readPosition;
+    private int writePosition;
+    private final Deque<LogtailBatch> outstanding = new ArrayDeque<>();
+    private final Set<LogtailBatch> delivered = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean closed = false;
+    private volatile long pendingBytes = 0;
+    private volatile long pendingRecords = 0;
+
+    /**
+     * Opens the spillover, recovering segments left over by a previous run.
+     *
+     * @param format
+     *            wire format identifier of the records, segments written in another format are discarded
+     */
+    public LogtailSpillover(File directory, int segmentSize, long maxBytes, byte format, Logger logger) throws IOException {
+        if (segmentSize <= HEADER_SIZE + 4)
+            throw new IllegalArgumentException("Spillover segment size too small: " + segmentSize);
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.format = format;
+        this.logger = logger;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create spillover directory " + directory);
+
+        recover();
+    }
+
+    /**
+     * Appends a serialized event.
+     *
+     * @return <i>false</i> if the record doesn't fit within the byte cap or the spillover is closed, and was dropped
+     */
+    public synchronized boolean write(byte[] record) throws IOException {
+        int size = 4 + record.length;
+        if (closed || size > segmentSize - HEADER_SIZE)
+            return false;
+
+        Segment segment = segments.peekLast();
+        if (segment == null || writePosition + size > segmentSize) {
+            if ((long) (segments.size() + 1) * segmentSize > maxBytes)
+                return false;
+            if (segment != null) {
+                segment.force();
+            }
+            segment = createSegment(segment == null ? 0 : segment.sequence + 1);
+            if (readSegment == null) {
+                readSegment = segment;
+                readPosition = HEADER_SIZE;
+            }
+        }
+
+        MappedByteBuffer buffer = segment.map();
+        buffer.position(writePosition + 4);
+        buffer.put(record);
+        buffer.putInt(writePosition, record.length);
+        writePosition += size;
+        pendingBytes += size;
+        pendingRecords++;
+
+        return true;
+    }
+
+    /**
+     * Reads the next records for replay, following those of batches which are still outstanding.
+     *
+     * @return the batch, or <i>null</i> if there is nothing to replay
+     */
+    public synchronized LogtailBatch read(int maxRecords) throws IOException {
+        if (readSegment == null)
+            return null;
+
+        List<byte[]> records = new ArrayList<>(Math.min(maxRecords, 1024));
+        int end = readSegment.end();
+        while (records.size() < maxRecords) {
+            MappedByteBuffer buffer = readSegment.map();
+            // Past the end, the bytes are either not written yet or left over from a torn write
+            int length = readPosition + 4 <= end ? buffer.getInt(readPosition) : 0;
+            if (length <= 0 || readPosition + 4 + length > end) {
+                Segment next = nextSegment(readSegment);
+                if (next == null)
+                    break;
+                readSegment = next;
+                readPosition = HEADER_SIZE;
+                end = readSegment.end();
+                continue;
+            }
+
+            byte[] record = new byte[length];
+            buffer.position(readPosition + 4);
+            buffer.get(record);
+            records.add(record);
+            readPosition += 4 + length;
+        }
+
+        if (records.isEmpty())
+            return null;
+
+        LogtailBatch batch = new LogtailBatch(0);
+        batch.getRecords().addAll(records);
+        batch.setSpilloverMark(readSegment.sequence, readPosition);
+        outstanding.addLast(batch);
+        return batch;
+    }
+
+    /**
+     * Marks records of the batch as delivered. Once all batches read before it are delivered too, the acknowledged
+     * offset moves past it and segments which are fully consumed are deleted.
+     */
+    public synchronized void acknowledge(LogtailBatch batch) throws IOException {
+        // Rewound since, its records are read again
+        if (!outstanding.contains(batch))
+            return;
+
+        delivered.add(batch);
+        boolean advanced = false;
+        while (!outstanding.isEmpty() && delivered.remove(outstanding.peekFirst())) {
+            advance(outstanding.pollFirst());
+            advanced = true;
+        }
+        Segment first = segments.peekFirst();
+        if (advanced && first != null) {
+            first.force();
+        }
+    }
+
+    private void advance(LogtailBatch batch) throws IOException {
+        while (!segments.isEmpty() && segments.peekFirst().sequence < batch.getSpilloverSegment()) {
+            Segment consumed = segments.pollFirst();
+            int end = consumed.end();
+            pendingBytes -= end - consumed.map().getInt(ACK_OFFSET_POSITION);
+            consumed.map().putInt(ACK_OFFSET_POSITION, end);
+            consumed.delete();
+        }
+
+        Segment first = segments.peekFirst();
+        if (first != null) {
+            int previous = first.map().getInt(ACK_OFFSET_POSITION);
+            first.map().putInt(ACK_OFFSET_POSITION, batch.getSpilloverOffset());
+            pendingBytes -= batch.getSpilloverOffset() - previous;
+        }
+        // Batches are acknowledged in the order they were read, so the batch holds exactly the records acknowledged
+        pendingRecords -= batch.getRecords().size();
+    }
+
+    /**
+     * Forgets the batch and all batches outstanding, their records will be read again starting at the acknowledged
+     * offset.
+     */
+    public synchronized void rewind(LogtailBatch batch) throws IOException {
+        // Rewound already
+        if (outstanding.contains(batch)) {
+            rewind();
+        }
+    }
+
+    private void rewind() throws IOException {
+        outstanding.clear();
+        delivered.clear();
+        readSegment = segments.peekFirst();
+        readPosition = readSegment == null ? HEADER_SIZE : readSegment.map().getInt(ACK_OFFSET_POSITION);
+    }
+
+    /**
+     * Whether the batch was read and neither acknowledged nor rewound since, ie. its records still have to be sent.
+     */
+    public synchronized boolean isOutstanding(LogtailBatch batch) {
+        return outstanding.contains(batch) && !delivered.contains(batch);
+    }
+
+    /**
+     * Whether there are records which were not acknowledged yet. Lock-free, safe to call on the logging hot path.
+     */
+    public boolean hasPendingRecords() {
+        return pendingBytes > 0;
+    }
+
+    /**
+     * Bytes of records waiting for delivery.
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Number of records waiting for delivery.
+     */
+    public long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        outstanding.clear();
+        delivered.clear();
+        readSegment = null;
+        closed = true;
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null)
+            return;
+        Arrays.sort(files);
+
+        for (File file : files) {
+            long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            Segment segment = new Segment(sequence, file);
+            if (file.length() != segmentSize || segment.map().getInt(0) != MAGIC || segment.map().get(4) != format) {
+                logger.error("Discarding spillover segment {} written with another format or segment size.", file);
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+        }
+
+        if (segments.isEmpty())
+            return;
+
+        writePosition = scanEnd(segments.peekLast());
+        for (Segment segment : segments) {
+            pendingBytes += segment.end() - segment.map().getInt(ACK_OFFSET_POSITION);
+            pendingRecords += countRecords(segment);
+        }
+        rewind();
+
+        if (pendingBytes > 0) {
+            logger.info("Recovered {} bytes of logs from spillover in {}, replaying.", pendingBytes, directory);
+        }
+    }
+
+    private int scanEnd(Segment segment) throws IOException {
+        MappedByteBuffer buffer = segment.map();
+        int position = HEADER_SIZE;
+        while (position + 4 <= segmentSize) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 4 + length > segmentSize)
+                break;
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    private int countRecords(Segment segment) throws IOException {
+        MappedByteBuffer buffer = segment.map();
+        int end = segment.end();
+        int records = 0;
+        for (int position = buffer.getInt(ACK_OFFSET_POSITION); position < end; position += 4 + buffer.getInt(position)) {
+            records++;
+        }
+        return records;
+    }
+
+    private Segment nextSegment(Segment segment) {
+        boolean found = false;
+        for (Segment candidate : segments) {
+            if (found)
+                return candidate;
+            found = candidate == segment;
+        }
+        return null;
+    }
+
+    private Segment createSegment(long sequence) throws IOException {
+        File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(sequence, file);
+        MappedByteBuffer buffer = segment.map();
+        buffer.putInt(0, MAGIC);
+        buffer.put(4, format);
+        buffer.putInt(ACK_OFFSET_POSITION, HEADER_SIZE);
+        segments.addLast(segment);
+        writePosition = HEADER_SIZE;
+        return segment;
+    }
+
+    private class Segment {
+        final long sequence;
+        final File file;
+        MappedByteBuffer buffer;
+
+        Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        MappedByteBuffer map() throws IOException {
+            if (buffer == null) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                }
+            }
+            return buffer;
+        }
+
+        int end() throws IOException {
+            return this == segments.peekLast() ? writePosition : scanEnd(this);
+        }
+
+        void force() {
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+
+        void close() {
+            force();
+            buffer = null;
+        }
+
+        void delete() {
+            buffer = null;
+            if (!file.delete()) {
+                logger.warn("Couldn't delete consumed spillover segment {}.", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.logtail.logback;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of JSON-escaped UTF-8 encodings of repeated low-cardinality strings, like logger and thread names,
+ * so that they are written by a raw copy of bytes instead of being encoded and escaped for every event.
+ * <p>
+ * The cache is direct-mapped - each string has a single slot given by its hash, and a miss replaces the slot's
+ * previous entry. Lookups are lock-free and don't allocate, racing writers at worst encode a string twice. An LRU
+ * cache would keep hot strings whose slots collide, but it takes a lock or allocates to track recency on every
+ * lookup, ie. for several strings of every event serialized. With a cache larger than the number of distinct logger
+ * and thread names, collisions are rare, and two hot colliding strings only cost the encoding they'd have without
+ * the cache.
+ * <p>
+ * Entries are published through an {@link AtomicReferenceArray}, so that a thread reading an entry written by another
+ * also sees the encoding cached in it.
+ */
+public class LogtailStringCache {
+
+    // Longer strings are unlikely to repeat and would make the cache retain a lot of memory
+    private static final int MAX_LENGTH = 256;
+
+    private final AtomicReferenceArray<SerializedString> entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size
+     *            number of cached strings, rounded up to a power of two
+     */
+    public LogtailStringCache(int size) {
+        int capacity = 1;
+        while (capacity < size)
+            capacity <<= 1;
+
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the encoded string, or <i>null</i> if the string is too long to be cached
+     */
+    public SerializableString get(String value) {
+        if (value.length() > MAX_LENGTH)
+            return null;
+
+        int hash = value.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        SerializedString entry = entries.get(index);
+        if (entry != null && value.equals(entry.getValue())) {
+            hits.increment();
+            return entry;
+        }
+
+        misses.increment();
+        entry = new SerializedString(value);
+        entry.asQuotedUTF8();
+        // Encoded before being published
+        entries.set(index, entry);
+        return entry;
+    }
+
+    public int getSize() {
+        return entries.length();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,102 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of throwables sent recently, so that a stack trace repeated within the window is only sent once.
+ * <p>
+ * Throwables are identified by a fingerprint of their class and stack frames, including their causes - but not their
+ * messages, which often contain ids. The number of tracked fingerprints is bounded - expired ones are purged first,
+ * then the oldest ones.
+ */
+public class LogtailThrowableDeduplicator {
+
+    private static final int MAX_FINGERPRINTS = 1024;
+    // Evicted at once when no window expired, so that eviction doesn't run for every new fingerprint
+    private static final int EVICTED_FINGERPRINTS = MAX_FINGERPRINTS / 8;
+
+    private final long windowMilliseconds;
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    public LogtailThrowableDeduplicator(long windowMilliseconds) {
+        this.windowMilliseconds = windowMilliseconds;
+    }
+
+    /**
+     * 64-bit fingerprint of the class and stack frames of the throwable and its causes.
+     */
+    public static long fingerprint(IThrowableProxy throwable) {
+        long hash = 0xcbf29ce484222325L;
+        for (IThrowableProxy current = throwable; current != null; current = current.getCause()) {
+            hash = mix(hash, current.getClassName() != null ? current.getClassName().hashCode() : 0);
+            StackTraceElementProxy[] frames = current.getStackTraceElementProxyArray();
+            if (frames == null)
+                continue;
+            for (StackTraceElementProxy frame : frames) {
+                StackTraceElement element = frame.getStackTraceElement();
+                hash = mix(hash, element.getClassName().hashCode());
+                hash = mix(hash, element.getMethodName().hashCode());
+                hash = mix(hash, element.getLineNumber());
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Records an occurrence of the fingerprint.
+     *
+     * @return 0 if the full stack trace has to be sent, otherwise the number of times it was repeated within the
+     *         window
+     */
+    public int register(long fingerprint, long timestamp) {
+        if (windows.size() >= MAX_FINGERPRINTS && !windows.containsKey(fingerprint)) {
+            evict(timestamp);
+        }
+
+        Window window = windows.compute(fingerprint, (key, current) -> current != null && timestamp - current.start < windowMilliseconds
+                ? new Window(current.start, current.repeats + 1)
+                : new Window(timestamp, 0));
+        return window.repeats;
+    }
+
+    /**
+     * Purges expired windows, or if none expired, the oldest ones.
+     */
+    private void evict(long timestamp) {
+        windows.values().removeIf(expired -> timestamp - expired.start >= windowMilliseconds);
+        if (windows.size() < MAX_FINGERPRINTS)
+            return;
+
+        long[] starts = windows.values().stream().mapToLong(window -> window.start).sorted().toArray();
+        if (starts.length == 0)
+            return;
+        long oldest = starts[Math.min(starts.length, EVICTED_FINGERPRINTS) - 1];
+        windows.values().removeIf(window -> window.start <= oldest);
+    }
+
+    /**
+     * Forgets the occurrence which started the fingerprint's window, as its full stack trace was dropped rather than
+     * sent, so that the next occurrence is sent in full again. Windows started by a later occurrence are kept.
+     */
+    public void forget(long fingerprint, long timestamp) {
+        windows.computeIfPresent(fingerprint, (key, window) -> window.start == timestamp ? null : window);
+    }
+
+    private static class Window {
+        final long start;
+        final int repeats;
+
+        Window(long start, int repeats) {
+            this.start = start;
+            this.repeats = repeats;
+        }
+    }
+}
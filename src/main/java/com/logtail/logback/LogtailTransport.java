@@ -0,0 +1,34 @@
+package com.logtail.logback;
+
+import java.io.IOException;
+
+/**
+ * Transport used by {@link LogtailAppender} to deliver batches of events to Better Stack.
+ * <p>
+ * Implementations must have a public no-arg constructor, so that they can be configured by class name. Connection
+ * settings (ingest url, timeouts, headers) are read from the appender, the request body is produced by
+ * {@link LogtailAppender#writeBody}.
+ * <p>
+ * Calls are blocking - batches are sent in parallel by the appender's sender threads.
+ */
+public interface LogtailTransport {
+
+    /**
+     * Called when the appender starts, after it has been configured.
+     */
+    void start(LogtailAppender appender);
+
+    /**
+     * Sends the batch and waits for the ingest response.
+     *
+     * @throws IOException
+     *             if the call failed without a response
+     */
+    LogtailResponse send(LogtailBatch batch) throws IOException;
+
+    /**
+     * Called when the appender stops, after the last batch was sent. Batches of a drain which stop() gave up on may
+     * still be sent afterwards, they either fail or are delivered.
+     */
+    void stop();
+}
@@ -0,0 +1,241 @@
+package com.logtail.logback;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Minimal streaming MessagePack encoder for the values produced by {@link LogtailAppender#buildPostData}.
+ * <p>
+ * Maps, collections, arrays, strings, numbers and booleans are written natively. Any other object is first converted
+ * by the given ObjectMapper into maps and lists, so it ends up with the same structure as in the JSON format. Null
+ * map values are skipped, like with JSON serialization.
+ */
+public class MessagePackEncoder {
+
+    private final OutputStream out;
+    private final ObjectMapper mapper;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+
+    public MessagePackEncoder(OutputStream out, ObjectMapper mapper) {
+        this.out = out;
+        this.mapper = mapper;
+    }
+
+    public void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeNil();
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            writeBoolean((Boolean) value);
+        } else if (value instanceof Character) {
+            writeString(value.toString());
+        } else if (value instanceof Map) {
+            writeMap((Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            writeArrayHeader(collection.size());
+            for (Object item : collection) {
+                writeValue(item);
+            }
+        } else if (value instanceof byte[]) {
+            writeBinary((byte[]) value);
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            writeArrayHeader(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(Array.get(value, i));
+            }
+        } else {
+            Object converted = mapper.convertValue(value, Object.class);
+            if (converted != null && converted.getClass() == value.getClass()) {
+                writeString(converted.toString());
+            } else {
+                writeValue(converted);
+            }
+        }
+    }
+
+    public void writeMap(Map<?, ?> map) throws IOException {
+        int size = 0;
+        for (Object item : map.values()) {
+            if (item != null)
+                size++;
+        }
+
+        writeMapHeader(size);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getValue() == null)
+                continue;
+            writeString(String.valueOf(entry.getKey()));
+            writeValue(entry.getValue());
+        }
+    }
+
+    /**
+     * Writes an already encoded value.
+     */
+    public void writeRaw(byte[] encoded) throws IOException {
+        writeBytes(encoded);
+    }
+
+    public void writeNil() throws IOException {
+        writeByte(0xc0);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? 0xc3 : 0xc2);
+    }
+
+    public void writeLong(long value) throws IOException {
+        if (value >= 0) {
+            if (value < 128) {
+                writeByte((int) value);
+            } else if (value < (1 << 8)) {
+                writeByte(0xcc);
+                writeByte((int) value);
+            } else if (value < (1 << 16)) {
+                writeByte(0xcd);
+                writeShort((int) value);
+            } else if (value < (1L << 32)) {
+                writeByte(0xce);
+                writeInt((int) value);
+            } else {
+                writeByte(0xcf);
+                writeLongBytes(value);
+            }
+        } else {
+            if (value >= -32) {
+                writeByte((int) value & 0xff);
+            } else if (value >= Byte.MIN_VALUE) {
+                writeByte(0xd0);
+                writeByte((int) value);
+            } else if (value >= Short.MIN_VALUE) {
+                writeByte(0xd1);
+                writeShort((int) value);
+            } else if (value >= Integer.MIN_VALUE) {
+                writeByte(0xd2);
+                writeInt((int) value);
+            } else {
+                writeByte(0xd3);
+                writeLongBytes(value);
+            }
+        }
+    }
+
+    public void writeDouble(double value) throws IOException {
+        writeByte(0xcb);
+        writeLongBytes(Double.doubleToLongBits(value));
+    }
+
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        if (length < 32) {
+            writeByte(0xa0 | length);
+        } else if (length < (1 << 8)) {
+            writeByte(0xd9);
+            writeByte(length);
+        } else if (length < (1 << 16)) {
+            writeByte(0xda);
+            writeShort(length);
+        } else {
+            writeByte(0xdb);
+            writeInt(length);
+        }
+        writeBytes(bytes);
+    }
+
+    public void writeBinary(byte[] value) throws IOException {
+        int length = value.length;
+        if (length < (1 << 8)) {
+            writeByte(0xc4);
+            writeByte(length);
+        } else if (length < (1 << 16)) {
+            writeByte(0xc5);
+            writeShort(length);
+        } else {
+            writeByte(0xc6);
+            writeInt(length);
+        }
+        writeBytes(value);
+    }
+
+    public void writeArrayHeader(int size) throws IOException {
+        if (size < 16) {
+            writeByte(0x90 | size);
+        } else if (size < (1 << 16)) {
+            writeByte(0xdc);
+            writeShort(size);
+        } else {
+            writeByte(0xdd);
+            writeInt(size);
+        }
+    }
+
+    public void writeMapHeader(int size) throws IOException {
+        if (size < 16) {
+            writeByte(0x80 | size);
+        } else if (size < (1 << 16)) {
+            writeByte(0xde);
+            writeShort(size);
+        } else {
+            writeByte(0xdf);
+            writeInt(size);
+        }
+    }
+
+    /**
+     * Writes out buffered data, without flushing nor closing the underlying stream.
+     */
+    public void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (position == buffer.length)
+            flush();
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeShort(int value) throws IOException {
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value >>> 16);
+        writeShort(value);
+    }
+
+    private void writeLongBytes(long value) throws IOException {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            flush();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+}
@@ -1,8 +1,5 @@
 package com.logtail.logback;
 
-import ch.qos.logback.classic.spi.ILoggingEvent;
-
-import java.util.List;
 import java.io.IOException;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -14,10 +11,10 @@ public class LogtailAppenderDecorator extends LogtailAppender {
     private ReentrantLock flushLock = new ReentrantLock();
 
     @Override
-    protected LogtailResponse callHttpURLConnection(int flushedSize) throws IOException {
+    protected LogtailResponse callIngest(LogtailBatch batch) throws IOException {
         try {
             apiCalls++;
-            this.response = super.callHttpURLConnection(flushedSize);
+            this.response = super.callIngest(batch);
 
             return this.response;
         } catch (Exception e) {
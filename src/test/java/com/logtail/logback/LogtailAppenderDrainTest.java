@@ -0,0 +1,167 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bounded shutdown of the appender, against a local stub of the ingest endpoint.
+ */
+public class LogtailAppenderDrainTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Test
+    public void testShutdownDrainsInParallel() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.setDelayMilliseconds(100);
+        appender.setBatchSize(10);
+        appender.setBatchInterval(60000);
+        appender.setMaxBatchSize(50);
+        appender.start();
+
+        for (int i = 0; i < 200; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.stop();
+
+        // Batches of up to maxBatchSize rather than batchSize, sent in parallel
+        assertEquals(200, fixture.ingestedEvents());
+        assertTrue(server.getRequests() < 200 / 10);
+        assertTrue(server.getMaxConcurrentRequests() > 1);
+    }
+
+    @Test
+    public void testShutdownTimeout() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(100);
+        appender.setBatchInterval(60000);
+        appender.setRetrySleepMilliseconds(5000);
+        appender.setShutdownTimeout(300);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        long start = System.currentTimeMillis();
+        appender.stop();
+
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals(10, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHUTDOWN));
+    }
+
+    @Test
+    public void testBatchFailingAfterShutdownTimeout() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(100);
+        server.setDelayMilliseconds(1000);
+        appender.setBatchInterval(60000);
+        appender.setShutdownTimeout(300);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.stop();
+        assertEquals(0, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHUTDOWN));
+
+        // The batch in flight at the deadline isn't left for a retry which never comes
+        long deadline = System.currentTimeMillis() + 5000;
+        while (appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHUTDOWN) < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(10, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHUTDOWN));
+        assertTrue(appender.flusher.retryBatches.isEmpty());
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void testShutdownTakesOverFlushInProgress() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.setDelayMilliseconds(300);
+        appender.setBatchSize(100);
+        appender.setBatchInterval(60000);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        Thread flusher = new Thread(appender::flush);
+        flusher.start();
+        Thread.sleep(100);
+        for (int i = 10; i < 15; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.stop();
+        flusher.join();
+
+        // Queued while another flush was sending, the drain waits for it rather than dropping them
+        assertEquals(15, fixture.ingestedEvents());
+        assertEquals(0, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHUTDOWN));
+    }
+
+    @Test
+    public void testShutdownProbesOpenCircuitBreaker() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(1);
+        appender.setBatchInterval(60000);
+        appender.setCircuitBreakerFailureThreshold(1);
+        appender.setCircuitBreakerResetTimeout(500);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+        assertEquals(LogtailCircuitBreaker.State.OPEN, appender.circuitBreaker.getState());
+        for (int i = 10; i < 20; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.stop();
+
+        // Without a shutdown timeout, the drain waits for the probe call rather than dropping everything
+        assertEquals(20, fixture.ingestedEvents());
+        assertEquals(0, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHUTDOWN));
+    }
+
+    @Test
+    public void testShutdownGivesUpAfterFailedProbe() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(100);
+        appender.setBatchInterval(60000);
+        appender.setCircuitBreakerFailureThreshold(1);
+        appender.setCircuitBreakerResetTimeout(500);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+        assertEquals(LogtailCircuitBreaker.State.OPEN, appender.circuitBreaker.getState());
+        appender.stop();
+
+        assertEquals(2, server.getRequests());
+        assertEquals(10, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHUTDOWN));
+    }
+}
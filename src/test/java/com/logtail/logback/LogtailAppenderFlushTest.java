@@ -0,0 +1,186 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Flush pipeline tests against a local stub of the ingest endpoint.
+ */
+public class LogtailAppenderFlushTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Test
+    public void testParallelBatches() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.setDelayMilliseconds(200);
+        appender.setBatchSize(10);
+        appender.setMaxInFlightBatches(4);
+        appender.start();
+
+        for (int i = 0; i < 80; i++) {
+            logger.info("I am Groot " + i);
+        }
+
+        fixture.awaitIngestedEvents(80);
+        assertTrue(server.getMaxConcurrentRequests() > 1);
+        assertTrue(server.getMaxConcurrentRequests() <= 4);
+    }
+
+    @Test
+    public void testSenderLingers() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(300);
+        appender.start();
+
+        logger.info("I am Groot");
+        Thread.sleep(100);
+        assertEquals(0, server.getRequests());
+
+        fixture.awaitIngestedEvents(1);
+    }
+
+    @Test
+    public void testSenderWokenUpByFullBatch() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchSize(10);
+        appender.setBatchInterval(60000);
+        appender.start();
+
+        int threads = Thread.activeCount();
+        for (int i = 0; i < 2000; i++) {
+            logger.info("I am Groot " + i);
+        }
+
+        fixture.awaitIngestedEvents(2000);
+        assertTrue(Thread.activeCount() - threads < 10);
+    }
+
+    @Test
+    public void testRetryKeepsOrder() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(1);
+        appender.setBatchSize(10);
+        appender.setBatchInterval(60000);
+        appender.setRetrySleepMilliseconds(200);
+        appender.start();
+
+        for (int i = 0; i < 30; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+        // The failed batch waits for its retry, the rest of the queue behind it
+        assertEquals(0, fixture.ingestedEvents());
+
+        fixture.awaitIngestedEvents(30);
+        List<JsonNode> events = fixture.getIngestedEvents();
+        for (int i = 0; i < 30; i++) {
+            assertEquals("I am Groot " + i, events.get(i).get("message").asText());
+        }
+    }
+
+    @Test
+    public void testParallelRetriesKeepOrder() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(2);
+        server.setDelayMilliseconds(100);
+        // Keeps the sender from waking up for a full batch while logging, so that the flush below claims both
+        appender.setBatchSize(100);
+        appender.setBatchInterval(60000);
+        appender.setMaxInFlightBatches(2);
+        appender.setRetrySleepMilliseconds(1000);
+        appender.start();
+
+        for (int i = 0; i < 20; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.setBatchSize(10);
+        appender.flush();
+        // Both batches failed in parallel, whichever failed first, the first claimed is retried first
+        assertEquals(2, server.getRequests());
+        assertEquals(2, server.getMaxConcurrentRequests());
+        assertEquals(2, appender.flusher.retryBatches.size());
+        assertEquals("I am Groot 0", appender.flusher.retryBatches.first().getEvents().get(0).getFormattedMessage());
+
+        assertEquals("I am Groot 10", appender.flusher.retryBatches.last().getEvents().get(0).getFormattedMessage());
+
+        fixture.awaitIngestedEvents(20);
+    }
+
+    @Test
+    public void testRetryBatchCountsTowardsMaxQueueSize() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(1);
+        appender.setMaxQueueSize(20);
+        appender.setBatchSize(100);
+        appender.setBatchInterval(60000);
+        appender.setRetrySleepMilliseconds(60000);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+        assertEquals(1, appender.flusher.retryBatches.size());
+        long retryBytes = appender.getQueueBytes();
+        assertTrue(retryBytes > 0);
+
+        for (int i = 10; i < 25; i++) {
+            logger.info("I am Groot " + i);
+        }
+        assertEquals(10, appender.getQueueSize());
+        assertEquals(5, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.QUEUE_FULL));
+
+        appender.flusher.retryBatches.first().setNextAttemptNanos(System.nanoTime());
+        appender.flush();
+        fixture.awaitIngestedEvents(20);
+        assertEquals(0, appender.getQueueBytes());
+    }
+
+    @Test
+    public void testMaxQueueBytes() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchSize(1000);
+        appender.setMaxQueueBytes(10000);
+        appender.start();
+
+        for (int i = 0; i < 100; i++) {
+            logger.info("I am Groot " + i);
+        }
+        assertTrue(appender.getQueueSize() < 100);
+        assertTrue(appender.getQueueBytes() > 0);
+        assertTrue(appender.getQueueBytes() <= 10000);
+
+        int queued = appender.getQueueSize();
+        appender.flush();
+
+        assertEquals(queued, fixture.ingestedEvents());
+        assertEquals(0, appender.getQueueBytes());
+    }
+}
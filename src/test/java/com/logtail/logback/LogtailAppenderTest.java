@@ -8,7 +8,15 @@ import ch.qos.logback.classic.spi.LoggingEvent;
 import org.junit.Test;
 import org.slf4j.MDC;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -44,6 +52,99 @@ public class LogtailAppenderTest {
         assertEventData(ev, postData);
     }
 
+    @Test
+    public void testStreamedBatchMatchesPostData() throws Exception {
+        Logger logger = new LoggerContext().getLogger(Logger.ROOT_LOGGER_NAME);
+        List<ILoggingEvent> events = Arrays.asList(
+                new LoggingEvent(Logger.FQCN, logger, Level.INFO, "First {}", null, new Object[]{ 1 }),
+                new LoggingEvent(Logger.FQCN, logger, Level.ERROR, "Second", new RuntimeException("GROOT!"), null)
+        );
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.setAppName("BetterStackTest");
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        appender.writeBatch(events, os);
+
+        assertEquals(appender.dataMapper.valueToTree(events.stream().map(appender::buildPostData).collect(Collectors.toList())), appender.dataMapper.readTree(os.toByteArray()));
+    }
+
+    @Test
+    public void testGzipCompressedBody() throws Exception {
+        Logger logger = new LoggerContext().getLogger(Logger.ROOT_LOGGER_NAME);
+        List<ILoggingEvent> events = Arrays.asList(
+                new LoggingEvent(Logger.FQCN, logger, Level.INFO, "First", null, null),
+                new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Second", null, null)
+        );
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.setCompression("gzip");
+        assertEquals("gzip", appender.compressionCodec.getContentEncoding());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        appender.writeBody(events, os);
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        appender.writeBatch(events, uncompressed);
+
+        assertEquals(appender.dataMapper.readTree(uncompressed.toByteArray()),
+                appender.dataMapper.readTree(new GZIPInputStream(new ByteArrayInputStream(os.toByteArray()))));
+
+        appender.setCompression("none");
+        assertNull(appender.compressionCodec);
+    }
+
+    @Test
+    public void testParallelSerializationMatchesSequential() throws Exception {
+        Logger logger = new LoggerContext().getLogger(Logger.ROOT_LOGGER_NAME);
+        List<ILoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Throwable throwable = i % 10 == 0 ? new RuntimeException("GROOT " + i) : null;
+            events.add(new LoggingEvent(Logger.FQCN, logger, Level.INFO, "I am Groot {}", throwable, new Object[]{ i }));
+        }
+        LogtailBatch batch = new LogtailBatch(events);
+        batch.getRecords().add("{\"message\":\"From spillover\"}".getBytes(StandardCharsets.UTF_8));
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.setContext(new LoggerContext());
+        appender.setSourceToken("stub-token");
+        appender.start();
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        appender.writeBatch(batch, sequential);
+        appender.stop();
+
+        appender.setSerializationThreads(4);
+        appender.start();
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        appender.writeBatch(batch, parallel);
+        appender.stop();
+
+        assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+        assertEquals(1001, appender.dataMapper.readTree(parallel.toByteArray()).size());
+
+        // Restarted without serialization threads, the batch is serialized by the sending thread again
+        appender.setSerializationThreads(1);
+        appender.start();
+        assertNull(appender.serializerExecutorService);
+        ByteArrayOutputStream restarted = new ByteArrayOutputStream();
+        appender.writeBatch(batch, restarted);
+        appender.stop();
+
+        assertArrayEquals(sequential.toByteArray(), restarted.toByteArray());
+    }
+
+    @Test
+    public void testQueueAllocatedOnStart() {
+        LogtailAppender appender = new LogtailAppender();
+        assertEquals(1, appender.queue.getLimit());
+
+        appender.setContext(new LoggerContext());
+        appender.setSourceToken("stub-token");
+        appender.setMaxQueueSize(500);
+        appender.start();
+        assertEquals(500, appender.queue.getLimit());
+        appender.stop();
+    }
+
     @SuppressWarnings("unchecked")
     private void assertEventData(ILoggingEvent ev, Map<String, Object> event) {
         assertNotNull(event);
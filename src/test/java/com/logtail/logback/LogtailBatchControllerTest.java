@@ -0,0 +1,56 @@
+package com.logtail.logback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogtailBatchControllerTest {
+
+    @Test
+    public void testGrowsUnderLoad() {
+        LogtailBatchController controller = new LogtailBatchController(1000, 3000, 100, 5000, 250, 10000);
+
+        controller.onBatchSent(1000, 50, 202, 8000);
+        assertEquals(2000, controller.getBatchSize());
+        controller.onBatchSent(2000, 50, 202, 9000);
+        controller.onBatchSent(4000, 50, 202, 12000);
+        assertEquals(5000, controller.getBatchSize());
+        assertEquals(3000, controller.getBatchInterval());
+    }
+
+    @Test
+    public void testBacksOffWhenThrottled() {
+        LogtailBatchController controller = new LogtailBatchController(1000, 3000, 100, 5000, 250, 10000);
+
+        controller.onBatchSent(1000, 50, 429, 0);
+        assertEquals(2000, controller.getBatchSize());
+        assertEquals(6000, controller.getBatchInterval());
+
+        controller.onBatchSent(2000, 5000, 0, 0);
+        assertEquals(4000, controller.getBatchSize());
+        assertEquals(10000, controller.getBatchInterval());
+    }
+
+    @Test
+    public void testShrinksWhenQuiet() {
+        LogtailBatchController controller = new LogtailBatchController(1000, 3000, 100, 5000, 250, 10000);
+
+        for (int i = 0; i < 100; i++) {
+            controller.onBatchSent(3, 20, 202, 0);
+        }
+        assertEquals(100, controller.getBatchSize());
+        assertEquals(250, controller.getBatchInterval());
+
+        // Interval kept above twice the round-trip time
+        controller.onBatchSent(3, 400, 202, 0);
+        assertEquals(800, controller.getBatchInterval());
+    }
+
+    @Test
+    public void testStartsWithinBounds() {
+        LogtailBatchController controller = new LogtailBatchController(10000, 100, 100, 5000, 250, 10000);
+
+        assertEquals(5000, controller.getBatchSize());
+        assertEquals(250, controller.getBatchInterval());
+    }
+}
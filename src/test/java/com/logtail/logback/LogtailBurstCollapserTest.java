@@ -0,0 +1,186 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogtailBurstCollapserTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    private final LoggerContext loggerContext = new LoggerContext();
+
+    @Test
+    public void testBurstIsCollapsed() {
+        LogtailBurstCollapser collapser = new LogtailBurstCollapser(1000, 10, 3);
+
+        int kept = 0;
+        for (int i = 0; i < 25; i++) {
+            if (!collapser.collapse(event("com.example.Orders", Level.INFO, "Order {} shipped", 10_000 + i, i)))
+                kept++;
+        }
+        // Other loggers, levels and templates are not part of the burst
+        assertFalse(collapser.collapse(event("com.example.Payments", Level.INFO, "Order {} shipped", 10_000, 0)));
+        assertFalse(collapser.collapse(event("com.example.Orders", Level.WARN, "Order {} shipped", 10_000, 0)));
+        assertFalse(collapser.collapse(event("com.example.Orders", Level.INFO, "Order {} paid", 10_000, 0)));
+        assertEquals(10, kept);
+
+        List<LogtailBurstCollapser.Burst> bursts = poll(collapser, 10_500, false);
+        assertTrue(bursts.isEmpty());
+
+        bursts = poll(collapser, 11_000, false);
+        assertEquals(1, bursts.size());
+        LogtailBurstCollapser.Burst burst = bursts.get(0);
+        assertEquals(15, burst.getCount());
+        assertEquals(10_010, burst.getFirstTimestamp());
+        assertEquals(10_024, burst.getLastTimestamp());
+        assertEquals(24, burst.getLastEvent().getArgumentArray()[0]);
+        assertEquals(3, burst.getSamples().size());
+        assertArrayEquals(new Object[]{ 10 }, burst.getSamples().get(0));
+        assertEquals(0, collapser.size());
+    }
+
+    @Test
+    public void testNewWindowAfterBurst() {
+        LogtailBurstCollapser collapser = new LogtailBurstCollapser(1000, 1, 3);
+
+        assertFalse(collapser.collapse(event("com.example.Orders", Level.INFO, "Order {} shipped", 10_000, 1)));
+        assertTrue(collapser.collapse(event("com.example.Orders", Level.INFO, "Order {} shipped", 10_100, 2)));
+        assertFalse(collapser.collapse(event("com.example.Orders", Level.INFO, "Order {} shipped", 11_000, 3)));
+
+        List<LogtailBurstCollapser.Burst> bursts = poll(collapser, 11_100, false);
+        assertEquals(1, bursts.size());
+        assertEquals(1, bursts.get(0).getCount());
+
+        // Nothing collapsed in the new window
+        assertTrue(poll(collapser, 11_100, true).isEmpty());
+    }
+
+    @Test
+    public void testUntrackedTemplatesAreCounted() {
+        LogtailBurstCollapser collapser = new LogtailBurstCollapser(1000, 1, 3);
+
+        for (int i = 0; i < 4096; i++) {
+            assertFalse(collapser.collapse(event("com.example.Orders", Level.INFO, "Order " + i + " shipped", 10_000, i)));
+        }
+        assertTrue(collapser.collapse(event("com.example.Orders", Level.INFO, "Order 7 shipped", 10_000, 7)));
+        assertFalse(collapser.collapse(event("com.example.Orders", Level.INFO, "Order 4096 shipped", 10_000, 4096)));
+        assertFalse(collapser.collapse(event("com.example.Orders", Level.INFO, "Order 4096 shipped", 10_000, 4096)));
+
+        assertEquals(4096, collapser.size());
+        assertEquals(2, collapser.getUntracked());
+    }
+
+    @Test
+    public void testCollapsedEventSerialization() throws Exception {
+        LogtailBurstCollapser collapser = new LogtailBurstCollapser(1000, 0, 5);
+        for (int i = 0; i < 3; i++) {
+            collapser.collapse(event("com.example.Orders", Level.INFO, "Order {} shipped", 10_000 + i, i));
+        }
+
+        LogtailAppender appender = new LogtailAppender();
+        LogtailCollapsedEvent event = new LogtailCollapsedEvent(poll(collapser, 0, true).get(0), "Order 2 shipped", appender.mdcFields);
+        String json = appender.dataMapper.writeValueAsString(appender.buildPostData(event));
+
+        assertEquals("{\"count\":3,\"firstDt\":\"10000\",\"lastDt\":\"10002\",\"samples\":[[0],[1],[2]]}",
+                appender.dataMapper.readTree(json).get("collapsed").toString());
+        assertEquals("Order 2 shipped", appender.dataMapper.readTree(json).get("message").asText());
+    }
+
+    private static List<LogtailBurstCollapser.Burst> poll(LogtailBurstCollapser collapser, long now, boolean all) {
+        List<LogtailBurstCollapser.Burst> bursts = new ArrayList<>();
+        collapser.poll(now, all, bursts::add);
+        return bursts;
+    }
+
+    @Test
+    public void testAppenderSendsCollapsedBurst() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(50);
+        appender.setBurstCollapseWindow(200);
+        appender.setBurstCollapseThreshold(2);
+        appender.start();
+
+        for (int i = 0; i < 20; i++) {
+            logger.info("Order {} shipped", i);
+        }
+
+        // 2 events kept, and one for the 18 others
+        fixture.awaitIngestedEvents(3);
+        JsonNode collapsed = null;
+        for (JsonNode event : fixture.getIngestedEvents()) {
+            if (event.has("collapsed")) {
+                collapsed = event;
+            }
+        }
+        assertEquals("Order 19 shipped", collapsed.get("message").asText());
+        assertEquals(18, collapsed.get("collapsed").get("count").asInt());
+        assertEquals(5, collapsed.get("collapsed").get("samples").size());
+    }
+
+    @Test
+    public void testCollapsedBurstIsNotEncoded() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(appender.getContext());
+        encoder.setPattern("%caller{1}%msg");
+        encoder.start();
+        appender.setEncoder(encoder);
+        appender.setBatchInterval(50);
+        appender.setBurstCollapseWindow(200);
+        appender.setBurstCollapseThreshold(2);
+        appender.start();
+
+        for (int i = 0; i < 20; i++) {
+            logger.info("Order {} shipped", i);
+        }
+
+        // Rendered on the sender thread, whose stack would be sent as the caller
+        fixture.awaitIngestedEvents(3);
+        assertEquals("Order 19 shipped", fixture.getIngestedEvents().get(2).get("message").asText());
+    }
+
+    @Test
+    public void testCollapsedPriorityBurstTakesPriorityLane() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setPriorityLevel("WARN");
+        appender.setPriorityBatchInterval(50);
+        appender.setBurstCollapseWindow(200);
+        appender.setBurstCollapseThreshold(2);
+        appender.start();
+
+        for (int i = 0; i < 20; i++) {
+            logger.error("Disk {} full", i);
+        }
+
+        // Sent once the window is over rather than after the batch interval
+        fixture.awaitIngestedEvents(3);
+        assertEquals(0, appender.getPriorityQueueSize());
+        assertEquals(0, appender.getQueueSize());
+        assertEquals(18, fixture.getIngestedEvents().get(2).get("collapsed").get("count").asInt());
+    }
+
+    private LoggingEvent event(String loggerName, Level level, String message, long timestamp, Object argument) {
+        LoggingEvent event = new LoggingEvent(Logger.FQCN, loggerContext.getLogger(loggerName), level, message, null, new Object[]{ argument });
+        event.setTimeStamp(timestamp);
+        return event;
+    }
+}
@@ -0,0 +1,145 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LogtailCatchUpTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStartsAndEndsWithHysteresis() {
+        LogtailCatchUp catchUp = new LogtailCatchUp(1000);
+
+        assertFalse(catchUp.update(999, 0));
+        assertTrue(catchUp.update(1000, 0));
+        assertTrue(catchUp.update(600, 0));
+        assertFalse(catchUp.update(500, 0));
+        assertFalse(catchUp.isActive());
+        assertFalse(catchUp.update(900, 0));
+    }
+
+    @Test
+    public void testEstimatesTimeToClear() {
+        LogtailCatchUp catchUp = new LogtailCatchUp(1000);
+        long second = TimeUnit.SECONDS.toNanos(1);
+
+        catchUp.update(10000, 0);
+        assertEquals(-1, catchUp.getEtaMillis());
+
+        // Shrinking by 1000 events/s, 8500 left above half of the threshold
+        catchUp.update(9000, second);
+        assertEquals(1000, catchUp.getDrainRate(), 0.001);
+        assertEquals(8500, catchUp.getEtaMillis());
+
+        // Smoothed with the previous rate
+        catchUp.update(6000, 2 * second);
+        assertEquals(2000, catchUp.getDrainRate(), 0.001);
+        assertEquals(2750, catchUp.getEtaMillis());
+        assertEquals(2000, catchUp.getElapsedMillis(2 * second));
+    }
+
+    @Test
+    public void testNoEstimateWhileGrowing() {
+        LogtailCatchUp catchUp = new LogtailCatchUp(1000);
+
+        catchUp.update(2000, 0);
+        catchUp.update(3000, TimeUnit.SECONDS.toNanos(1));
+        assertTrue(catchUp.getDrainRate() < 0);
+        assertEquals(-1, catchUp.getEtaMillis());
+    }
+
+    @Test
+    public void testCatchUp() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.setDelayMilliseconds(50);
+        appender.setBatchSize(10);
+        appender.setBatchInterval(60000);
+        appender.setCatchUpThreshold(100);
+        appender.setCatchUpMaxBatchBytes(10000);
+        appender.start();
+
+        for (int i = 0; i < 2000; i++) {
+            logger.info("I am Groot " + i);
+        }
+
+        // Larger batches than batchSize, sent in parallel
+        fixture.awaitIngestedEvents(2000);
+        assertTrue(server.getRequests() < 2000 / 10 / 2);
+        assertTrue(server.getMaxConcurrentRequests() > 1);
+        assertFalse(appender.getMetrics().isCatchUp());
+        assertEquals(1, appender.flusher.inFlightLimit);
+    }
+
+    @Test
+    public void testCatchUpBatchSizeBeforeCompression() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setCompression("gzip");
+        appender.setBatchInterval(60000);
+        appender.setCatchUpMaxBatchBytes(10000);
+        appender.start();
+
+        for (int i = 0; i < 100; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+        fixture.awaitIngestedEvents(100);
+
+        // Sized from the events as serialized, not from how well they compressed
+        LogtailMetrics metrics = appender.getMetrics();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getSentEvents() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(metrics.getSentUncompressedBytes() > 2 * metrics.getSentBytes());
+        assertEquals(10000.0 * 100 / metrics.getSentUncompressedBytes(), appender.flusher.getCatchUpBatchSize(), 1);
+    }
+
+    @Test
+    public void testCatchUpOnSpillover() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(Integer.MAX_VALUE);
+        appender.setMaxQueueSize(50);
+        appender.setBatchSize(10);
+        appender.setBatchInterval(60000);
+        appender.setMaxRetries(1);
+        appender.setSpilloverDirectory(folder.getRoot().getAbsolutePath());
+        appender.setCatchUpThreshold(100);
+        appender.setCatchUpMaxBatchBytes(10000);
+        appender.start();
+
+        for (int i = 0; i < 500; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+        assertTrue(appender.queue.size() < 100);
+
+        // The backlog is on disk, replayed in larger batches than batchSize
+        int failedRequests = server.getRequests();
+        server.failNextRequests(0);
+        Thread.sleep(200);
+        appender.flush();
+
+        fixture.awaitIngestedEvents(500);
+        assertTrue(server.getRequests() - failedRequests < 500 / 10 / 2);
+        assertFalse(appender.getMetrics().isCatchUp());
+    }
+}
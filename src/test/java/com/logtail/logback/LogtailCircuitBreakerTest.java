@@ -0,0 +1,146 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogtailCircuitBreakerTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Test
+    public void testSingleProbeWhenHalfOpen() throws Exception {
+        LogtailCircuitBreaker breaker = new LogtailCircuitBreaker(2, 0);
+
+        breaker.onFailure();
+        assertEquals(LogtailCircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(LogtailCircuitBreaker.State.OPEN, breaker.getState());
+
+        // Reset timeout of 0 - the probe is permitted right away, but only once
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(LogtailCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailedBatchIsRetried() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(2);
+        appender.start();
+
+        for (int i = 0; i < 5; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+
+        fixture.awaitIngestedEvents(5);
+        assertEquals(1, server.getBodies().size());
+        assertEquals(3, server.getRequests());
+    }
+
+    @Test
+    public void testRetryDoesNotBlockFlush() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(1);
+        appender.setRetrySleepMilliseconds(2000);
+        appender.start();
+
+        logger.info("I am Groot");
+        long start = System.currentTimeMillis();
+        appender.flush();
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, appender.flusher.retryBatches.size());
+        fixture.awaitIngestedEvents(1);
+    }
+
+    @Test
+    public void testRetryDelayBackoff() {
+        LogtailAppender appender = fixture.getAppender();
+
+        appender.setRetrySleepMilliseconds(100);
+        appender.setMaxRetryDelay(1000);
+
+        for (int i = 0; i < 20; i++) {
+            long first = appender.flusher.getRetryDelay(1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = appender.flusher.getRetryDelay(3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = appender.flusher.getRetryDelay(10);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerStopsCalls() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(Integer.MAX_VALUE);
+        appender.setMaxRetries(100);
+        appender.setCircuitBreakerFailureThreshold(3);
+        appender.setCircuitBreakerResetTimeout(500);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.setBatchSize(1);
+        appender.flush();
+
+        // The failed batch is retried until the circuit breaker opens, the rest of the queue waits behind it
+        long deadline = System.currentTimeMillis() + 5000;
+        while (appender.circuitBreaker.getState() != LogtailCircuitBreaker.State.OPEN && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(LogtailCircuitBreaker.State.OPEN, appender.circuitBreaker.getState());
+        assertEquals(9, appender.getQueueSize());
+
+        // No calls are made while the circuit breaker is open
+        int requests = server.getRequests();
+        appender.flush();
+        Thread.sleep(200);
+        assertEquals(requests, server.getRequests());
+
+        // A single probe goes through once the reset timeout elapses, then everything is delivered
+        server.failNextRequests(0);
+        fixture.awaitIngestedEvents(10);
+        assertEquals(LogtailCircuitBreaker.State.CLOSED, appender.circuitBreaker.getState());
+    }
+
+    @Test
+    public void testBatchDroppedAfterMaxRetries() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(100);
+        appender.setMaxRetries(2);
+        appender.start();
+
+        logger.info("I am Groot");
+        appender.flush();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((server.getRequests() < 3 || !appender.flusher.retryBatches.isEmpty() || appender.flusher.isFlushing.get())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(3, server.getRequests());
+        assertEquals(0, server.getBodies().size());
+        assertEquals(0, appender.getQueueSize());
+        assertTrue(appender.flusher.retryBatches.isEmpty());
+    }
+}
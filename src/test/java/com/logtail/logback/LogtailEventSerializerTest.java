@@ -0,0 +1,170 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LogtailEventSerializerTest {
+
+    private final Logger logger = new LoggerContext().getLogger("com.logtail.test.OrderService");
+
+    @After
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    public void testSerializesLikePostData() throws Exception {
+        MDC.put("requestId", "abc");
+        MDC.put("requestTime", "123");
+        MDC.put("userId", "not a number");
+        MDC.put("ignored", "value");
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.setAppName("BetterStackTest");
+        appender.setMdcFields("requestId,requestTime,userId,active");
+        appender.setMdcTypes("string,int,long,boolean");
+
+        List<ILoggingEvent> events = new ArrayList<>();
+        events.add(new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Plain \"quoted\" message", null, null));
+        events.add(new LoggingEvent(Logger.FQCN, logger, Level.WARN, "Order {} for {} at {}", null,
+                new Object[]{ 42, "Groot", 1.5d, null, true, Collections.singletonMap("key", "value") }));
+        events.add(new LoggingEvent(Logger.FQCN, logger, Level.ERROR, "Order failed",
+                new IllegalStateException("Boom", new RuntimeException("Cause")), new Object[]{}));
+        LoggingEvent withCaller = new LoggingEvent(Logger.FQCN, logger, Level.DEBUG, "Called", null, null);
+        withCaller.setCallerData(new StackTraceElement[]{ new StackTraceElement("com.logtail.Groot", "speak", null, 7) });
+        events.add(withCaller);
+
+        for (ILoggingEvent event : events) {
+            assertEquals(appender.dataMapper.valueToTree(appender.buildPostData(event)), appender.dataMapper.readTree(serialize(appender, event)));
+        }
+    }
+
+    @Test
+    public void testOverriddenPostDataIsKept() throws Exception {
+        LogtailAppender appender = new LogtailAppender() {
+            @Override
+            protected Map<String, Object> buildPostData(ILoggingEvent event) {
+                Map<String, Object> postData = super.buildPostData(event);
+                postData.put("custom", "value");
+                return postData;
+            }
+        };
+
+        ILoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, "I am Groot", null, null);
+
+        assertEquals("value", appender.dataMapper.readTree(serialize(appender, event)).get("custom").asText());
+    }
+
+    @Test
+    public void testSpilledRecordsCopiedAsBytes() throws Exception {
+        LogtailAppender appender = new LogtailAppender();
+        LogtailBatch batch = new LogtailBatch(Collections.singletonList(
+                new LoggingEvent(Logger.FQCN, logger, Level.INFO, "I am Groot", null, null)));
+        batch.getRecords().add("{\"message\":\"Je s'appelle Groot \u00e9\u2603\"}".getBytes(StandardCharsets.UTF_8));
+        batch.getRecords().add("{\"message\":\"\u6211\u662f\u683c\u9c81\u7279\"}".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        appender.writeBatch(batch, os);
+
+        JsonNode events = appender.dataMapper.readTree(os.toByteArray());
+        assertEquals(3, events.size());
+        assertEquals("Je s'appelle Groot \u00e9\u2603", events.get(0).get("message").asText());
+        assertEquals("\u6211\u662f\u683c\u9c81\u7279", events.get(1).get("message").asText());
+        assertEquals("I am Groot", events.get(2).get("message").asText());
+    }
+
+    @Test
+    public void testNoAllocationPerEvent() throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        MDC.put("requestId", "abc");
+        MDC.put("requestTime", "123");
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.setAppName("BetterStackTest");
+        appender.setMdcFields("requestId,requestTime");
+        appender.setMdcTypes("string,int");
+        LogtailEventSerializer serializer = new LogtailEventSerializer(appender);
+
+        List<ILoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Order {} shipped", null, new Object[]{ i });
+            event.setCallerData(new StackTraceElement[]{ new StackTraceElement("com.logtail.OrderService", "ship", "OrderService.java", 42) });
+            event.prepareForDeferredProcessing();
+            events.add(event);
+        }
+
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        try (JsonGenerator generator = appender.dataMapper.getFactory().createGenerator(discard)) {
+            generator.writeStartArray();
+            // Warm up
+            for (int round = 0; round < 50; round++) {
+                writeEvents(serializer, events, generator);
+            }
+
+            long misses = appender.getStringCacheMisses();
+            long threadId = Thread.currentThread().getId();
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int round = 0; round < 10; round++) {
+                writeEvents(serializer, events, generator);
+            }
+            long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+            // Loose bound, building the post data map of an event alone takes several hundred bytes
+            assertTrue("Allocated " + allocated + " bytes for 10000 events", allocated / 10000 < 64);
+            // Logger, thread and caller names are all written from the cache once warmed up
+            assertEquals(misses, appender.getStringCacheMisses());
+            assertTrue(appender.getStringCacheHits() > 0);
+            generator.writeEndArray();
+        }
+    }
+
+    private static void writeEvents(LogtailEventSerializer serializer, List<ILoggingEvent> events, JsonGenerator generator) throws IOException {
+        for (int i = 0; i < events.size(); i++) {
+            serializer.write(events.get(i), generator);
+        }
+    }
+
+    private static byte[] serialize(LogtailAppender appender, ILoggingEvent event) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JsonGenerator generator = appender.dataMapper.getFactory().createGenerator(os)) {
+            new LogtailEventSerializer(appender).write(event, generator);
+        }
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,90 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogtailEventSnapshotTest {
+
+    private final Logger logger = new LoggerContext().getLogger("com.logtail.test.OrderService");
+
+    @After
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    public void testSnapshotSerializesLikeOriginal() throws Exception {
+        MDC.put("requestId", "abc");
+        MDC.put("requestTime", "123");
+        MDC.put("ignored", "value");
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.setAppName("BetterStackTest");
+        appender.setMdcFields("requestId,requestTime");
+        appender.setMdcTypes("string,int");
+
+        ILoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.ERROR, "Order {} failed", new IllegalStateException("Boom", new RuntimeException("Cause")), new Object[]{ 42 });
+        ILoggingEvent snapshot = new LogtailEventSnapshot(event, appender.generateLogMessage(event), appender.mdcFields);
+
+        assertEquals(appender.dataMapper.valueToTree(appender.buildPostData(event)), appender.dataMapper.valueToTree(appender.buildPostData(snapshot)));
+        assertNull(snapshot.getMDCPropertyMap().get("ignored"));
+    }
+
+    @Test
+    public void testNonScalarArgumentsAreCopiedAsStrings() {
+        StringBuilder mutable = new StringBuilder("before");
+        ILoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Value {}", null, new Object[]{ mutable, 1L });
+        ILoggingEvent snapshot = new LogtailEventSnapshot(event, event.getFormattedMessage(), new ArrayList<>());
+
+        mutable.append(" after");
+
+        assertEquals("before", snapshot.getArgumentArray()[0]);
+        assertEquals(1L, snapshot.getArgumentArray()[1]);
+        assertEquals("Value before", snapshot.getFormattedMessage());
+    }
+
+    @Test
+    public void testSnapshotDropsReferencesToArgumentsAndUnsentMdc() {
+        for (int i = 0; i < 20; i++) {
+            MDC.put("key" + i, "value-" + i);
+        }
+        List<String> mdcFields = new ArrayList<>();
+        mdcFields.add("key1");
+
+        RequestPayload payload = new RequestPayload(7);
+        ILoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Processed request {}", null, new Object[]{ payload });
+        ILoggingEvent snapshot = new LogtailEventSnapshot(event, event.getFormattedMessage(), mdcFields);
+
+        assertEquals("Request#7", snapshot.getArgumentArray()[0]);
+        assertEquals(1, snapshot.getMDCPropertyMap().size());
+        assertEquals("value-1", snapshot.getMDCPropertyMap().get("key1"));
+        assertEquals("Processed request Request#7", snapshot.getFormattedMessage());
+    }
+
+    /**
+     * Argument standing for a domain object, which the snapshot shouldn't keep alive.
+     */
+    private static class RequestPayload {
+        private final int id;
+
+        RequestPayload(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return "Request#" + id;
+        }
+    }
+}
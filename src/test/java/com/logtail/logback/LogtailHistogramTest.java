@@ -0,0 +1,33 @@
+package com.logtail.logback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogtailHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LogtailHistogram histogram = new LogtailHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+
+        LogtailHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(101, snapshot.getCount());
+        assertEquals(5050 / 101.0, snapshot.getMean(), 0.001);
+        assertEquals(100, snapshot.getMax());
+        // Upper bounds of the power of two buckets
+        assertEquals(63, snapshot.getP50());
+        assertEquals(100, snapshot.getP90());
+        assertEquals(100, snapshot.getP99());
+    }
+
+    @Test
+    public void testEmpty() {
+        LogtailHistogram.Snapshot snapshot = new LogtailHistogram().getSnapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getP99());
+    }
+}
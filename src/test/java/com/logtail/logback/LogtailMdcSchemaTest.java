@@ -0,0 +1,125 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LogtailMdcSchemaTest {
+
+    private final Logger logger = new LoggerContext().getLogger("com.logtail.test.OrderService");
+
+    @After
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    public void testTypes() throws Exception {
+        MDC.put("price", "12.5");
+        MDC.put("createdAt", "1700000000000");
+        MDC.put("updatedAt", "2023-11-14T23:13:20+01:00");
+        MDC.put("order", "{\"id\":42,\"items\":[\"groot\"]}");
+        MDC.put("ignored", "value");
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.setMdcFields("price,createdAt,updatedAt,order");
+        appender.setMdcTypes("double, timestamp, timestamp, json");
+
+        LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Order created", null, null);
+        JsonNode meta = appender.dataMapper.valueToTree(appender.buildPostData(event)).get("meta");
+
+        assertEquals(12.5, meta.get("price").doubleValue(), 0);
+        assertEquals("2023-11-14T22:13:20Z", meta.get("createdAt").asText());
+        assertEquals("2023-11-14T22:13:20Z", meta.get("updatedAt").asText());
+        assertEquals(42, meta.get("order").get("id").asInt());
+        assertEquals("groot", meta.get("order").get("items").get(0).asText());
+        assertFalse(meta.has("ignored"));
+        assertEquals(0, appender.getMdcConversionFailures());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JsonGenerator generator = appender.dataMapper.getFactory().createGenerator(os)) {
+            new LogtailEventSerializer(appender).write(event, generator);
+        }
+        assertEquals(appender.dataMapper.readTree(os.toByteArray()).get("meta"), meta);
+    }
+
+    @Test
+    public void testConversionFailuresAreCounted() throws Exception {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setMdcFields("requestTime,createdAt,order");
+        appender.setMdcTypes("int,timestamp,json");
+        LogtailMdcSchema schema = appender.getMdcSchema();
+
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("requestTime", "soon");
+        mdc.put("createdAt", "yesterday");
+        mdc.put("order", "{\"id\":");
+
+        Map<String, Object> meta = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            schema.putValues(mdc, meta);
+        }
+
+        assertEquals(mdc, meta);
+        assertEquals(30, appender.getMdcConversionFailures());
+    }
+
+    @Test
+    public void testConversionFailuresReportedOnce() {
+        LoggerContext loggerContext = new LoggerContext();
+        ListAppender<ILoggingEvent> warnings = new ListAppender<>();
+        warnings.setContext(loggerContext);
+        warnings.start();
+        Logger appenderLogger = loggerContext.getLogger(LogtailAppender.class);
+        appenderLogger.addAppender(warnings);
+
+        LogtailAppender appender = new LogtailAppender();
+        appender.logger = appenderLogger;
+        appender.setMdcFields("requestTime");
+        appender.setMdcTypes("int");
+        LogtailMdcSchema schema = appender.getMdcSchema();
+
+        Map<String, Object> meta = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            schema.putValues(Collections.singletonMap("requestTime", "soon"), meta);
+        }
+        // Nothing is logged while converting, the sender reports it
+        assertTrue(warnings.list.isEmpty());
+
+        appender.reportMdcConversionFailures();
+        appender.reportMdcConversionFailures();
+        assertEquals(1, warnings.list.size());
+        assertEquals("Sending 10 MDC values which couldn't be converted to their type as strings, eg. 'soon' as int",
+                warnings.list.get(0).getFormattedMessage());
+    }
+
+    @Test
+    public void testFieldLookup() {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setMdcFields("requestId,requestTime");
+        appender.setMdcTypes("string,long");
+        LogtailMdcSchema schema = appender.getMdcSchema();
+
+        assertEquals(LogtailMdcSchema.Type.LONG, schema.getType("requestTime"));
+        assertNull(schema.getType("userId"));
+
+        // Reconfiguring recompiles the schema
+        appender.setMdcTypes("string,int");
+        assertEquals(LogtailMdcSchema.Type.INT, appender.getMdcSchema().getType("requestTime"));
+    }
+}
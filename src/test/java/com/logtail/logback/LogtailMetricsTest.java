@@ -0,0 +1,67 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class LogtailMetricsTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Test
+    public void testMetrics() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setName("metrics-test");
+        appender.setJmx(true);
+        appender.setBatchInterval(50);
+        appender.setMaxQueueSize(5);
+        appender.start();
+
+        fixture.getServer().failNextRequests(1);
+        for (int i = 0; i < 8; i++) {
+            logger.info("I am Groot " + i);
+        }
+        fixture.awaitIngestedEvents(5);
+
+        // Counted once the response is received, after the stub ingested the events
+        LogtailMetrics metrics = appender.getMetrics();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getEventAgeMillis().getCount() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(5, metrics.getEnqueuedEvents());
+        assertEquals(3L, (long) metrics.getDroppedEvents().get("QUEUE_FULL"));
+        assertEquals(5, metrics.getSentEvents());
+        assertEquals(1, metrics.getSentBatches());
+        assertEquals(1, metrics.getRetries());
+        assertEquals(1, metrics.getFailedRequests());
+        assertTrue(metrics.getSentBytes() > 0);
+        assertEquals(metrics.getSentBytes(), metrics.getSentUncompressedBytes());
+        assertEquals(2, metrics.getRoundTripMillis().getCount());
+        assertEquals(5, metrics.getEventAgeMillis().getCount());
+        assertEquals(0, metrics.getQueueSize());
+        // The logger and thread names are encoded once
+        assertTrue(metrics.getStringCacheMisses() > 0);
+        assertTrue(metrics.getStringCacheHits() > 0);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.logtail.logback:type=LogtailAppender,name=\"metrics-test\"");
+        assertEquals(5L, server.getAttribute(name, "SentEvents"));
+        assertEquals(metrics.getStringCacheHits(), server.getAttribute(name, "StringCacheHits"));
+        assertEquals(5L, ((CompositeData) server.getAttribute(name, "EventAgeMillis")).get("count"));
+
+        appender.stop();
+        assertFalse(server.isRegistered(name));
+    }
+}
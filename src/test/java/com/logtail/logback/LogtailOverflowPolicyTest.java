@@ -0,0 +1,107 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class LogtailOverflowPolicyTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOverflowDropOldest() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setMaxQueueSize(5);
+        appender.setOverflowPolicy("drop-oldest");
+        appender.start();
+
+        for (int i = 0; i < 8; i++) {
+            logger.info("I am Groot " + i);
+        }
+        assertEquals(3, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.EVICTED));
+        assertEquals(0, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.QUEUE_FULL));
+
+        appender.flush();
+        assertEquals(5, fixture.ingestedEvents());
+        assertEquals("I am Groot 3", fixture.getIngestedEvents().get(0).get("message").asText());
+    }
+
+    @Test
+    public void testOverflowWithFullSpillover() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setMaxQueueSize(5);
+        appender.setOverflowPolicy("drop-oldest");
+        appender.setSpilloverDirectory(folder.getRoot().getAbsolutePath());
+        appender.setSpilloverHighWaterMark(2);
+        appender.setSpilloverMaxBytes(1);
+        appender.start();
+
+        for (int i = 0; i < 8; i++) {
+            logger.info("I am Groot " + i);
+        }
+
+        // Nothing fits in the spillover, the queue evicts its oldest events instead
+        assertEquals(0, appender.getSpilloverBytes());
+        assertEquals(3, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.EVICTED));
+        assertEquals(0, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.QUEUE_FULL));
+
+        appender.flush();
+        assertEquals(5, fixture.ingestedEvents());
+        assertEquals("I am Groot 3", fixture.getIngestedEvents().get(0).get("message").asText());
+    }
+
+    @Test
+    public void testOverflowShedLowestLevel() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setMaxQueueSize(10);
+        appender.setOverflowPolicy("SHED_LOWEST_LEVEL");
+        appender.start();
+
+        for (int i = 0; i < 20; i++) {
+            logger.info("I am Groot " + i);
+        }
+        logger.error("We are Groot");
+
+        // INFO is shed from 85% of the queue, leaving room for the error
+        assertEquals(11, appender.getMetrics().getDroppedEvents(LogtailMetrics.DropReason.SHED));
+        assertEquals(10, appender.getQueueSize());
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.setDelayMilliseconds(20);
+        appender.setBatchSize(5);
+        appender.setMaxQueueSize(5);
+        appender.setOverflowPolicy("block");
+        appender.setOverflowBlockTimeout(5000);
+        appender.start();
+
+        for (int i = 0; i < 50; i++) {
+            logger.info("I am Groot " + i);
+        }
+
+        fixture.awaitIngestedEvents(50);
+        assertEquals(0, appender.getMetrics().getDroppedEvents().values().stream().mapToLong(Long::longValue).sum());
+        assertTrue(appender.getMetrics().getBlockedMillis().getCount() > 0);
+    }
+}
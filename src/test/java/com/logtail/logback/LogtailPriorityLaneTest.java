@@ -0,0 +1,95 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogtailPriorityLaneTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Test
+    public void testPriorityEventsBypassFullQueue() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setMaxQueueSize(5);
+        appender.setPriorityLevel("WARN");
+        appender.setPriorityBatchInterval(50);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        logger.error("We are Groot");
+
+        // Sent within the priority interval along with the queued events, despite the full queue and long interval
+        fixture.awaitIngestedEvents(6);
+        assertEquals(5, appender.getMetrics().getDroppedEvents().get("QUEUE_FULL").longValue());
+        assertEquals(0, appender.getPriorityQueueSize());
+        assertEquals("We are Groot", fixture.getIngestedEvents().get(0).get("message").asText());
+    }
+
+    @Test
+    public void testPriorityEventsLingerForPriorityInterval() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setPriorityLevel("WARN");
+        appender.setPriorityBatchInterval(300);
+        appender.start();
+
+        logger.warn("We are Groot");
+        Thread.sleep(100);
+        assertEquals(0, server.getRequests());
+
+        fixture.awaitIngestedEvents(1);
+    }
+
+    @Test
+    public void testFullPriorityQueueFallsBackToQueue() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setPriorityLevel("WARN");
+        appender.setPriorityQueueSize(2);
+        appender.setPriorityBatchInterval(60000);
+        appender.start();
+
+        for (int i = 0; i < 3; i++) {
+            logger.error("We are Groot " + i);
+        }
+        assertEquals(2, appender.getPriorityQueueSize());
+        assertEquals(1, appender.getQueueSize());
+
+        appender.flush();
+        fixture.awaitIngestedEvents(3);
+    }
+
+    @Test
+    public void testPriorityLaneTurnedOffWhileStarted() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(60000);
+        appender.setPriorityLevel("WARN");
+        appender.start();
+
+        logger.error("We are Groot");
+        appender.setPriorityLevel("OFF");
+        logger.error("I am Groot");
+        assertEquals(1, appender.getPriorityQueueSize());
+        assertEquals(1, appender.getQueueSize());
+
+        appender.flush();
+        fixture.awaitIngestedEvents(2);
+        assertEquals("We are Groot", fixture.getIngestedEvents().get(0).get("message").asText());
+    }
+}
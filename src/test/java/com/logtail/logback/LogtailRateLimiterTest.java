@@ -0,0 +1,139 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LogtailRateLimiterTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    private final LoggerContext loggerContext = new LoggerContext();
+
+    @Test
+    public void testLongestPrefixWins() {
+        LogtailRateLimiter limiter = new LogtailRateLimiter(null, "com.example=0, com.example.orders=1, com.example.orders.Audit:DEBUG=0", 60000);
+
+        assertFalse(limiter.tryAcquire(event("com.example.Payments", Level.INFO)));
+        assertTrue(limiter.tryAcquire(event("com.example.orders.OrderService", Level.INFO)));
+        assertTrue(limiter.tryAcquire(event("com.example.orders.Audit", Level.INFO)));
+        assertFalse(limiter.tryAcquire(event("com.example.orders.Audit", Level.DEBUG)));
+        assertFalse(limiter.tryAcquire(event("com.example.orders.Audit.Inner", Level.TRACE)));
+        // Prefixes match whole name segments only
+        assertTrue(limiter.tryAcquire(event("com.examples.Groot", Level.INFO)));
+        assertFalse(limiter.tryAcquire(event("com.example.ordersArchive", Level.INFO)));
+        assertEquals(4, limiter.getSampledOut());
+    }
+
+    @Test
+    public void testTokenBucket() {
+        LogtailRateLimiter limiter = new LogtailRateLimiter("*=5, com.example:INFO=2", null, 60000);
+
+        int sent = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire(event("com.example.Groot", Level.INFO)))
+                sent++;
+        }
+        assertEquals(2, sent);
+
+        sent = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire(event("com.example.Groot", Level.ERROR)))
+                sent++;
+        }
+        assertEquals(5, sent);
+        assertEquals(193, limiter.getRateLimited());
+    }
+
+    @Test
+    public void testTokensAreRefilled() throws Exception {
+        LogtailRateLimiter limiter = new LogtailRateLimiter("com.example=20", null, 60000);
+        while (limiter.tryAcquire(event("com.example.Groot", Level.INFO))) {
+        }
+
+        Thread.sleep(120);
+        assertTrue(limiter.tryAcquire(event("com.example.Groot", Level.INFO)));
+    }
+
+    @Test
+    public void testSummary() {
+        LogtailRateLimiter limiter = new LogtailRateLimiter("com.example=1", "com.example:DEBUG=0", 60000);
+        limiter.tryAcquire(event("com.example.Groot", Level.INFO));
+        limiter.tryAcquire(event("com.example.Groot", Level.INFO));
+        limiter.tryAcquire(event("com.example.Groot", Level.DEBUG));
+
+        assertEquals(2, limiter.pollSummary().size());
+        assertTrue(limiter.pollSummary().isEmpty());
+        assertFalse(limiter.isSummaryDue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRule() {
+        new LogtailRateLimiter("com.example:VERBOSE=1", null, 60000);
+    }
+
+    @Test
+    public void testRateLimitedEventsAreSummarized() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setBatchInterval(50);
+        appender.setRateLimits("com.logtail.logback:INFO=3");
+        appender.setRateLimitSummaryInterval(200);
+        appender.start();
+
+        for (int i = 0; i < 10; i++) {
+            logger.info("I am Groot " + i);
+        }
+        logger.warn("We are Groot");
+
+        // 3 events within the burst, the warning and the summary of the 7 others
+        fixture.awaitIngestedEvents(5);
+        assertEquals(7, appender.getRateLimitedEvents());
+
+        String summary = null;
+        for (JsonNode event : fixture.getIngestedEvents()) {
+            if (event.get("meta").get("logger").asText().equals(LogtailAppender.class.getName())) {
+                summary = event.get("message").asText();
+            }
+        }
+        assertEquals("Rate limit of 3.0 events/s of logger 'com.logtail.logback' (INFO and below) dropped 7 events", summary);
+    }
+
+    @Test
+    public void testSummaryIsNotEncoded() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(appender.getContext());
+        encoder.setPattern("%contextName %caller{1}%msg");
+        encoder.start();
+        appender.setEncoder(encoder);
+        appender.setBatchInterval(50);
+        appender.setRateLimits("com.logtail.logback:INFO=1");
+        appender.setRateLimitSummaryInterval(200);
+        appender.start();
+
+        for (int i = 0; i < 3; i++) {
+            logger.info("I am Groot " + i);
+        }
+
+        // Built on the sender thread without a logger context, the summary is sent as it is
+        fixture.awaitIngestedEvents(2);
+        assertEquals("Rate limit of 1.0 events/s of logger 'com.logtail.logback' (INFO and below) dropped 2 events",
+                fixture.getIngestedEvents().get(1).get("message").asText());
+    }
+
+    private LoggingEvent event(String loggerName, Level level) {
+        return new LoggingEvent(Logger.FQCN, loggerContext.getLogger(loggerName), level, "I am Groot", null, null);
+    }
+}
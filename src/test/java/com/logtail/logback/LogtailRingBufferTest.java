@@ -0,0 +1,68 @@
+package com.logtail.logback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LogtailRingBufferTest {
+
+    @Test
+    public void testFifoAndLimit() {
+        LogtailRingBuffer<Integer> buffer = new LogtailRingBuffer<>(3);
+
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertTrue(buffer.offer(3));
+        assertFalse(buffer.offer(4));
+        assertEquals(3, buffer.size());
+
+        assertEquals(Integer.valueOf(1), buffer.poll());
+        assertTrue(buffer.offer(5));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(drained, 2));
+        assertEquals(2, (int) drained.get(0));
+        assertEquals(3, (int) drained.get(1));
+        assertEquals(Integer.valueOf(5), buffer.poll());
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        int producers = 8;
+        int perProducer = 20000;
+        LogtailRingBuffer<Integer> buffer = new LogtailRingBuffer<>(1024);
+        CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++) {
+            int offset = p * perProducer;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(offset + i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        Set<Integer> received = new HashSet<>();
+        while (received.size() < producers * perProducer) {
+            Integer element = buffer.poll();
+            if (element != null) {
+                assertTrue(received.add(element));
+            }
+        }
+
+        done.await();
+        assertTrue(buffer.isEmpty());
+    }
+}
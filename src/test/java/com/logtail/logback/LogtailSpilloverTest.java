@@ -0,0 +1,277 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class LogtailSpilloverTest {
+
+    @Rule
+    public LogtailStubFixture fixture = new LogtailStubFixture();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayAcrossSegments() throws IOException {
+        LogtailSpillover spillover = open(folder.getRoot());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spillover.write(record(i)));
+        }
+        assertTrue(spillover.hasPendingRecords());
+        assertEquals(10, spillover.getPendingRecords());
+        assertTrue(folder.getRoot().list().length > 1);
+
+        LogtailBatch batch = spillover.read(4);
+        assertEquals(4, batch.size());
+        assertEquals("event-0", text(batch.getRecords().get(0)));
+
+        spillover.acknowledge(batch);
+        assertEquals(6, spillover.getPendingRecords());
+        batch = spillover.read(100);
+        assertEquals(6, batch.size());
+        assertEquals("event-4", text(batch.getRecords().get(0)));
+        spillover.acknowledge(batch);
+
+        assertFalse(spillover.hasPendingRecords());
+        assertEquals(0, spillover.getPendingRecords());
+        assertNull(spillover.read(100));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testOutstandingBatchesAcknowledgedOutOfOrder() throws IOException {
+        LogtailSpillover spillover = open(folder.getRoot());
+        for (int i = 0; i < 10; i++) {
+            spillover.write(record(i));
+        }
+
+        LogtailBatch first = spillover.read(4);
+        LogtailBatch second = spillover.read(4);
+        LogtailBatch third = spillover.read(4);
+        assertEquals("event-4", text(second.getRecords().get(0)));
+        assertEquals("event-8", text(third.getRecords().get(0)));
+        assertNull(spillover.read(4));
+
+        // Not past the first batch yet
+        spillover.acknowledge(second);
+        assertEquals(10, spillover.getPendingRecords());
+
+        spillover.acknowledge(first);
+        assertEquals(2, spillover.getPendingRecords());
+        spillover.close();
+
+        spillover = open(folder.getRoot());
+        assertEquals(2, spillover.getPendingRecords());
+        assertEquals("event-8", text(spillover.read(100).getRecords().get(0)));
+    }
+
+    @Test
+    public void testRewind() throws IOException {
+        LogtailSpillover spillover = open(folder.getRoot());
+        spillover.write(record(1));
+        spillover.write(record(2));
+        spillover.write(record(3));
+
+        LogtailBatch first = spillover.read(1);
+        LogtailBatch second = spillover.read(1);
+        spillover.acknowledge(second);
+        spillover.rewind(first);
+        // Stale once rewound
+        spillover.acknowledge(second);
+        spillover.rewind(second);
+        assertEquals(3, spillover.getPendingRecords());
+
+        LogtailBatch batch = spillover.read(100);
+        assertEquals(3, batch.size());
+        assertEquals("event-1", text(batch.getRecords().get(0)));
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws IOException {
+        LogtailSpillover spillover = open(folder.getRoot());
+        for (int i = 0; i < 10; i++) {
+            spillover.write(record(i));
+        }
+        spillover.acknowledge(spillover.read(3));
+        spillover.read(3); // Not acknowledged, will be replayed again
+        spillover.close();
+
+        spillover = open(folder.getRoot());
+        assertTrue(spillover.hasPendingRecords());
+        assertEquals(7, spillover.getPendingRecords());
+        LogtailBatch batch = spillover.read(100);
+        assertEquals(7, batch.size());
+        assertEquals("event-3", text(batch.getRecords().get(0)));
+
+        spillover.write(record(10));
+        spillover.acknowledge(batch);
+        assertEquals("event-10", text(spillover.read(100).getRecords().get(0)));
+    }
+
+    @Test
+    public void testCorruptRecordLengthNotReplayed() throws IOException {
+        LogtailSpillover spillover = open(folder.getRoot());
+        spillover.write(record(0));
+        spillover.write(record(1));
+        spillover.close();
+
+        // Torn write of a third record, its length is garbage
+        File segment = folder.getRoot().listFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(16 + 2 * (4 + 7));
+            raf.writeInt(-1);
+        }
+
+        spillover = open(folder.getRoot());
+        assertEquals(2, spillover.getPendingRecords());
+        LogtailBatch batch = spillover.read(100);
+        assertEquals(2, batch.size());
+        assertEquals("event-1", text(batch.getRecords().get(1)));
+        assertNull(spillover.read(100));
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        LogtailSpillover spillover = new LogtailSpillover(folder.getRoot(), 64, 128, (byte) 0, LoggerFactory.getLogger(LogtailAppender.class));
+
+        int written = 0;
+        while (spillover.write(record(written))) {
+            written++;
+        }
+        assertEquals(8, written);
+        assertFalse(spillover.write(new byte[100]));
+    }
+
+    @Test
+    public void testSpilloverReplayedAfterOutage() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(Integer.MAX_VALUE);
+        appender.setMaxQueueSize(20);
+        appender.setBatchSize(10);
+        appender.setMaxRetries(1);
+        appender.setSpilloverDirectory(folder.getRoot().getAbsolutePath());
+        appender.start();
+
+        for (int i = 0; i < 100; i++) {
+            logger.info("I am Groot " + i);
+        }
+        Thread.sleep(200);
+        appender.flush();
+        assertEquals(0, server.getBodies().size());
+        assertTrue(appender.getSpilloverBytes() > 0);
+
+        server.failNextRequests(0);
+        appender.flush();
+
+        fixture.awaitIngestedEvents(100);
+        assertEquals(0, appender.getSpilloverBytes());
+    }
+
+    @Test
+    public void testSpilloverReplayedWithBatchesInParallel() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(Integer.MAX_VALUE);
+        appender.setMaxQueueSize(20);
+        appender.setBatchSize(10);
+        appender.setBatchInterval(60000);
+        appender.setMaxInFlightBatches(4);
+        appender.setMaxRetries(1);
+        appender.setSpilloverDirectory(folder.getRoot().getAbsolutePath());
+        appender.start();
+
+        for (int i = 0; i < 100; i++) {
+            logger.info("I am Groot " + i);
+        }
+        appender.flush();
+        Thread.sleep(200);
+        appender.flush();
+        assertTrue(appender.getSpilloverBytes() > 0);
+
+        // Once the circuit breaker is half-open, a single flush replays the whole spillover rather than a batch per
+        // batch interval
+        server.failNextRequests(0);
+        Thread.sleep(200);
+        appender.flush();
+
+        fixture.awaitIngestedEvents(100);
+        assertEquals(0, appender.getSpilloverBytes());
+    }
+
+    @Test
+    public void testTinyQueueOnlySpillsWhenFull() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        Logger logger = fixture.getLogger();
+
+        appender.setMaxQueueSize(5);
+        appender.setBatchInterval(60000);
+        appender.setSpilloverDirectory(folder.getRoot().getAbsolutePath());
+        appender.start();
+
+        for (int i = 0; i < 3; i++) {
+            logger.info("I am Groot " + i);
+        }
+        assertEquals(0, appender.getSpilloverBytes());
+        assertEquals(3, appender.queue.size());
+    }
+
+    @Test
+    public void testSpilloverReleasedOnStop() throws Exception {
+        LogtailAppender appender = fixture.getAppender();
+        LogtailStubServer server = fixture.getServer();
+        Logger logger = fixture.getLogger();
+
+        server.failNextRequests(Integer.MAX_VALUE);
+        appender.setMaxQueueSize(20);
+        appender.setBatchSize(10);
+        appender.setMaxRetries(1);
+        appender.setShutdownTimeout(100);
+        appender.setSpilloverDirectory(folder.getRoot().getAbsolutePath());
+        appender.start();
+
+        for (int i = 0; i < 100; i++) {
+            logger.info("I am Groot " + i);
+        }
+        assertTrue(appender.getSpilloverBytes() > 0);
+
+        appender.stop();
+        assertNull(appender.spillover);
+        assertEquals(0, appender.getSpilloverBytes());
+
+        // The next start picks the spilled over events up from disk again
+        server.failNextRequests(0);
+        appender.setShutdownTimeout(0);
+        appender.start();
+        appender.flush();
+        fixture.awaitIngestedEvents(100);
+    }
+
+    private static LogtailSpillover open(File directory) throws IOException {
+        // Small segments, 3 records each
+        return new LogtailSpillover(directory, 16 + 3 * 11, 1024 * 1024, (byte) 0, LoggerFactory.getLogger(LogtailAppender.class));
+    }
+
+    private static byte[] record(int i) {
+        return String.format("event-%d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] record) {
+        return new String(record, StandardCharsets.UTF_8);
+    }
+}
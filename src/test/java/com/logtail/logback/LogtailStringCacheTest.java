@@ -0,0 +1,35 @@
+package com.logtail.logback;
+
+import com.fasterxml.jackson.core.SerializableString;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class LogtailStringCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        LogtailStringCache cache = new LogtailStringCache(16);
+
+        SerializableString first = cache.get("com.logtail.OrderService");
+        assertSame(first, cache.get(new String("com.logtail.OrderService")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        assertEquals("main \\\"thread\\\"", new String(cache.get("main \"thread\"").asQuotedUTF8(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBounded() {
+        LogtailStringCache cache = new LogtailStringCache(16);
+        for (int i = 0; i < 1000; i++) {
+            cache.get("thread-" + i);
+        }
+
+        assertEquals(16, cache.getSize());
+        assertEquals(1000, cache.getMisses());
+        assertNull(cache.get(new String(new char[300])));
+    }
+}
@@ -0,0 +1,100 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.rules.ExternalResource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Appender sending to a local stub of the ingest endpoint, with short retry and circuit breaker delays. Both are
+ * created on first use and stopped after each test.
+ */
+public class LogtailStubFixture extends ExternalResource {
+
+    private LogtailStubServer server;
+    private LogtailAppender appender;
+    private Logger logger;
+
+    public LogtailStubServer getServer() {
+        init();
+        return server;
+    }
+
+    public LogtailAppender getAppender() {
+        init();
+        return appender;
+    }
+
+    /**
+     * Logger of the test class, sending to the appender.
+     */
+    public Logger getLogger() {
+        init();
+        return logger;
+    }
+
+    private void init() {
+        if (server != null)
+            return;
+
+        try {
+            server = new LogtailStubServer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        LoggerContext loggerContext = new LoggerContext();
+        appender = new LogtailAppender();
+        appender.setContext(loggerContext);
+        appender.setIngestUrl(server.getUrl());
+        appender.setSourceToken("stub-token");
+        appender.setRetrySleepMilliseconds(10);
+        appender.setCircuitBreakerResetTimeout(100);
+
+        logger = loggerContext.getLogger(LogtailStubFixture.class);
+        logger.addAppender(appender);
+    }
+
+    @Override
+    protected void after() {
+        if (server == null)
+            return;
+
+        appender.stop();
+        server.stop();
+    }
+
+    public void awaitIngestedEvents(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ingestedEvents() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, ingestedEvents());
+    }
+
+    public int ingestedEvents() throws IOException {
+        return getIngestedEvents().size();
+    }
+
+    /**
+     * Events of all successfully ingested requests, in the order they were received.
+     */
+    public List<JsonNode> getIngestedEvents() throws IOException {
+        List<JsonNode> events = new ArrayList<>();
+        synchronized (getServer().getBodies()) {
+            for (byte[] body : server.getBodies()) {
+                for (JsonNode event : appender.dataMapper.readTree(body)) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,106 @@
+package com.logtail.logback;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stub of the Better Stack ingest endpoint, recording received request bodies.
+ */
+public class LogtailStubServer {
+
+    private final HttpServer server;
+    private final List<byte[]> bodies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int delayMilliseconds = 0;
+
+    public LogtailStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            int concurrent = concurrentRequests.incrementAndGet();
+            maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+            try {
+                InputStream body = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    body = new GZIPInputStream(body);
+                }
+                byte[] content = readFully(body);
+                Thread.sleep(delayMilliseconds);
+
+                if (failuresLeft.getAndDecrement() > 0) {
+                    exchange.sendResponseHeaders(503, -1);
+                } else {
+                    bodies.add(content);
+                    exchange.sendResponseHeaders(202, -1);
+                }
+            } catch (InterruptedException e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                concurrentRequests.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Bodies of successfully ingested requests.
+     */
+    public List<byte[]> getBodies() {
+        return bodies;
+    }
+
+    /**
+     * Number of requests received, including failed ones.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests.get();
+    }
+
+    public void setDelayMilliseconds(int delayMilliseconds) {
+        this.delayMilliseconds = delayMilliseconds;
+    }
+
+    /**
+     * Makes the next <i>failures</i> requests fail with 503 Service Unavailable.
+     */
+    public void failNextRequests(int failures) {
+        failuresLeft.set(failures);
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,232 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LogtailThrowableDeduplicatorTest {
+
+    private final Logger logger = new LoggerContext().getLogger("com.logtail.test.OrderService");
+
+    @Test
+    public void testRepeatsWithinWindow() {
+        LogtailThrowableDeduplicator deduplicator = new LogtailThrowableDeduplicator(1000);
+
+        assertEquals(0, deduplicator.register(42, 10_000));
+        assertEquals(1, deduplicator.register(42, 10_500));
+        assertEquals(2, deduplicator.register(42, 10_999));
+        assertEquals(0, deduplicator.register(7, 10_999));
+        assertEquals(0, deduplicator.register(42, 11_000));
+    }
+
+    @Test
+    public void testEvictsOldestWindows() {
+        LogtailThrowableDeduplicator deduplicator = new LogtailThrowableDeduplicator(10_000);
+        for (int i = 0; i < 1024; i++) {
+            assertEquals(0, deduplicator.register(i, 10_000 + i));
+        }
+
+        // None expired, only the oldest windows make room for the new fingerprint
+        assertEquals(0, deduplicator.register(5000, 11_100));
+        assertEquals(0, deduplicator.register(0, 11_200));
+        assertEquals(1, deduplicator.register(1023, 11_200));
+    }
+
+    @Test
+    public void testForgetOnlyTheDroppedOccurrence() {
+        LogtailThrowableDeduplicator deduplicator = new LogtailThrowableDeduplicator(1000);
+
+        assertEquals(0, deduplicator.register(42, 10_000));
+        deduplicator.forget(42, 9_000);
+        assertEquals(1, deduplicator.register(42, 10_100));
+        deduplicator.forget(42, 10_000);
+        assertEquals(0, deduplicator.register(42, 10_200));
+    }
+
+    @Test
+    public void testFingerprintIgnoresMessage() {
+        long[] fingerprints = new long[2];
+        for (int i = 0; i < 2; i++) {
+            fingerprints[i] = LogtailThrowableDeduplicator.fingerprint(new ThrowableProxy(fail("Order " + i + " failed")));
+        }
+
+        assertEquals(fingerprints[0], fingerprints[1]);
+        assertNotEquals(fingerprints[0], LogtailThrowableDeduplicator.fingerprint(new ThrowableProxy(new IllegalStateException("Order 0 failed"))));
+    }
+
+    @Test
+    public void testRepeatedStackTraceIsSentOnce() throws Exception {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setThrowableDeduplicationWindow(60000);
+        appender.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                appender.queue.offer(error("Order " + i + " failed"));
+            }
+            LogtailBatch batch = appender.flusher.nextBatch();
+            JsonNode events = appender.dataMapper.readTree(write(appender, batch));
+
+            JsonNode first = events.get(0).get("throwable");
+            assertTrue(first.has("stackTrace"));
+            assertTrue(first.get("cause").has("stackTrace"));
+            assertTrue(first.get("cause").get("commonFrames").asInt() > 0);
+            assertFalse(first.has("repeated"));
+
+            for (int i = 1; i < 3; i++) {
+                JsonNode repeated = events.get(i).get("throwable");
+                assertEquals("Order " + i + " failed", repeated.get("message").asText());
+                assertEquals(first.get("fingerprint"), repeated.get("fingerprint"));
+                assertEquals(i, repeated.get("repeated").asInt());
+                assertFalse(repeated.has("stackTrace"));
+                assertFalse(repeated.get("cause").has("stackTrace"));
+            }
+
+            // A retried batch is sent the same way
+            assertArrayEquals(write(appender, batch), write(appender, batch));
+        } finally {
+            appender.stop();
+        }
+    }
+
+    @Test
+    public void testRepeatedStackTraceIsSentOnceAsMessagePack() throws Exception {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setThrowableDeduplicationWindow(60000);
+        appender.setFormat("msgpack");
+        appender.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                appender.queue.offer(error("Order " + i + " failed"));
+            }
+            LogtailBatch batch = appender.flusher.nextBatch();
+
+            Map<?, ?> first = (Map<?, ?>) appender.buildPostData(batch, 0).get("throwable");
+            Map<?, ?> repeated = (Map<?, ?>) appender.buildPostData(batch, 1).get("throwable");
+            assertTrue(first.containsKey("stackTrace"));
+            assertFalse(first.containsKey("repeated"));
+            assertEquals(first.get("fingerprint"), repeated.get("fingerprint"));
+            assertEquals(1, repeated.get("repeated"));
+            assertFalse(repeated.containsKey("stackTrace"));
+            assertFalse(((Map<?, ?>) repeated.get("cause")).containsKey("stackTrace"));
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            MessagePackEncoder encoder = new MessagePackEncoder(expected, appender.dataMapper);
+            encoder.writeArrayHeader(2);
+            encoder.writeMap(appender.buildPostData(batch, 0));
+            encoder.writeMap(appender.buildPostData(batch, 1));
+            encoder.flush();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            appender.writeBatch(batch, os);
+            assertArrayEquals(expected.toByteArray(), os.toByteArray());
+        } finally {
+            appender.stop();
+        }
+    }
+
+    @Test
+    public void testStackTraceOfDroppedBatchIsSentInFullAgain() throws Exception {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setThrowableDeduplicationWindow(60000);
+        appender.start();
+        try {
+            LogtailBatch dropped = null;
+            for (int i = 0; i < 3; i++) {
+                appender.queue.offer(error("Order " + i + " failed"));
+                if (dropped == null) {
+                    dropped = appender.flusher.nextBatch();
+                    assertEquals(0, dropped.getThrowableRepeats(0));
+                    dropped.setRetries(appender.maxRetries + 1);
+                    assertTrue(appender.flusher.flushLogs(dropped));
+                }
+            }
+            LogtailBatch batch = appender.flusher.nextBatch();
+            JsonNode events = appender.dataMapper.readTree(write(appender, batch));
+
+            assertTrue(events.get(0).get("throwable").has("stackTrace"));
+            assertEquals(1, events.get(1).get("throwable").get("repeated").asInt());
+        } finally {
+            appender.stop();
+        }
+    }
+
+    @Test
+    public void testRepeatedStackTraceOfOverriddenPostData() throws Exception {
+        LogtailAppender appender = new LogtailAppender() {
+            @Override
+            protected Map<String, Object> generateLogMeta(ILoggingEvent event) {
+                return super.generateLogMeta(event);
+            }
+        };
+        appender.setThrowableDeduplicationWindow(60000);
+        appender.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                appender.queue.offer(error("Order " + i + " failed"));
+            }
+            LogtailBatch batch = appender.flusher.nextBatch();
+            JsonNode repeated = appender.dataMapper.readTree(write(appender, batch)).get(1).get("throwable");
+
+            assertEquals(1, repeated.get("repeated").asInt());
+            assertTrue(repeated.has("fingerprint"));
+            assertFalse(repeated.has("stackTrace"));
+        } finally {
+            appender.stop();
+        }
+    }
+
+    @Test
+    public void testMaxStackTraceFrames() throws Exception {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setMaxStackTraceFrames(2);
+        LoggingEvent event = error("Order failed");
+
+        JsonNode throwable = appender.dataMapper.readTree(serialize(appender, event)).get("throwable");
+        int frames = event.getThrowableProxy().getStackTraceElementProxyArray().length;
+
+        assertEquals(2, throwable.get("stackTrace").size());
+        assertEquals(frames - 2, throwable.get("omittedFrames").asInt());
+        assertFalse(throwable.has("fingerprint"));
+        assertEquals(appender.dataMapper.valueToTree(appender.buildPostData(event)), appender.dataMapper.readTree(serialize(appender, event)));
+    }
+
+    private static RuntimeException fail(String message) {
+        return new RuntimeException(message, new IllegalArgumentException("Invalid order"));
+    }
+
+    private LoggingEvent error(String message) {
+        return new LoggingEvent(Logger.FQCN, logger, Level.ERROR, message, fail(message), null);
+    }
+
+    private static byte[] write(LogtailAppender appender, LogtailBatch batch) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JsonGenerator generator = appender.dataMapper.getFactory().createGenerator(os)) {
+            LogtailEventSerializer serializer = new LogtailEventSerializer(appender);
+            generator.writeStartArray();
+            for (int i = 0; i < batch.getEvents().size(); i++) {
+                serializer.write(batch, i, generator);
+            }
+            generator.writeEndArray();
+        }
+        return os.toByteArray();
+    }
+
+    private static byte[] serialize(LogtailAppender appender, LoggingEvent event) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (JsonGenerator generator = appender.dataMapper.getFactory().createGenerator(os)) {
+            new LogtailEventSerializer(appender).write(event, generator);
+        }
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,199 @@
+package com.logtail.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends batches through each transport to a local stub of the ingest endpoint.
+ */
+public class LogtailTransportTest {
+
+    private HttpServer server;
+    private final List<byte[]> bodies = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            bodies.add(readFully(exchange.getRequestBody()));
+            authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        // Rejects the request without reading its body
+        server.createContext("/reject", exchange -> {
+            exchange.sendResponseHeaders(413, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testHttpURLConnectionTransport() throws Exception {
+        LogtailAppender appender = createAppender(null, false);
+        assertTrue(appender.transport instanceof HttpURLConnectionTransport);
+
+        assertDelivered(appender);
+    }
+
+    @Test
+    public void testHttpURLConnectionTransportStreaming() throws Exception {
+        assertDelivered(createAppender(null, true));
+    }
+
+    @Test
+    public void testHttpClientTransport() throws Exception {
+        LogtailAppender appender = createAppender("httpclient", false);
+        Assume.assumeFalse("HttpClientTransport requires Java 11+", appender.transport instanceof HttpURLConnectionTransport);
+
+        assertDelivered(appender);
+        assertDelivered(appender);
+    }
+
+    @Test
+    public void testHttpClientTransportAfterStop() throws Exception {
+        LogtailAppender appender = createAppender("httpclient", false);
+        Assume.assumeFalse("HttpClientTransport requires Java 11+", appender.transport instanceof HttpURLConnectionTransport);
+
+        // Batches of an abandoned drain are still sent once the appender stopped
+        appender.stop();
+        assertDelivered(appender);
+    }
+
+    @Test
+    public void testHttpClientTransportStreaming() throws Exception {
+        LogtailAppender appender = createAppender("httpclient", true);
+        Assume.assumeFalse("HttpClientTransport requires Java 11+", appender.transport instanceof HttpURLConnectionTransport);
+
+        assertDelivered(appender);
+    }
+
+    @Test
+    public void testHttpClientTransportStreamingLargeBatch() throws Exception {
+        LogtailAppender appender = createAppender("httpclient", true);
+        Assume.assumeFalse("HttpClientTransport requires Java 11+", appender.transport instanceof HttpURLConnectionTransport);
+
+        // Larger than the chunks buffered between the serializing thread and the client
+        assertDelivered(appender, 5000);
+    }
+
+    @Test
+    public void testHttpClientTransportStreamingRejected() throws Exception {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setIngestUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/reject");
+        configure(appender, "httpclient", true);
+        Assume.assumeFalse("HttpClientTransport requires Java 11+", appender.transport instanceof HttpURLConnectionTransport);
+
+        // The serializing thread isn't left blocked on a body which is no longer consumed
+        long start = System.currentTimeMillis();
+        try {
+            assertEquals(413, appender.callIngest(new LogtailBatch(events(5000))).getStatus());
+        } catch (IOException e) {
+            // The connection may be closed before the response is read
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testHttpClientTransportStreamingWriterFailure() throws Exception {
+        LogtailAppender appender = new LogtailAppender() {
+            @Override
+            protected void writeBatch(LogtailBatch batch, OutputStream os) throws IOException {
+                os.write('[');
+                throw new IOException("Serialization failed");
+            }
+        };
+        appender.setIngestUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        configure(appender, "httpclient", true);
+        Assume.assumeFalse("HttpClientTransport requires Java 11+", appender.transport instanceof HttpURLConnectionTransport);
+
+        // The request is aborted rather than sent with a truncated body
+        try {
+            appender.callIngest(new LogtailBatch(events(3)));
+            fail("Expected the writer's exception");
+        } catch (IOException e) {
+            assertEquals("Serialization failed", e.getMessage());
+        }
+        Thread.sleep(200);
+        assertTrue(bodies.isEmpty());
+    }
+
+    private LogtailAppender createAppender(String transport, boolean streaming) {
+        LogtailAppender appender = new LogtailAppender();
+        appender.setIngestUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        configure(appender, transport, streaming);
+        return appender;
+    }
+
+    private void configure(LogtailAppender appender, String transport, boolean streaming) {
+        appender.setContext(new LoggerContext());
+        appender.setSourceToken("stub-token");
+        appender.setStreaming(streaming);
+        if (transport != null) {
+            appender.setTransport(transport);
+        }
+        appender.start();
+    }
+
+    private void assertDelivered(LogtailAppender appender) throws Exception {
+        assertDelivered(appender, 3);
+    }
+
+    private void assertDelivered(LogtailAppender appender, int count) throws Exception {
+        bodies.clear();
+
+        LogtailResponse response = appender.callIngest(new LogtailBatch(events(count)));
+
+        assertEquals(202, response.getStatus());
+        assertEquals(1, bodies.size());
+        assertEquals("Bearer stub-token", authorizations.get(0));
+        JsonNode json = appender.dataMapper.readTree(bodies.get(0));
+        assertEquals(count, json.size());
+        assertEquals("I am Groot " + (count - 1), json.get(count - 1).get("message").asText());
+    }
+
+    private static List<ILoggingEvent> events(int count) {
+        Logger logger = new LoggerContext().getLogger(LogtailTransportTest.class);
+        List<ILoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(new LoggingEvent(Logger.FQCN, logger, Level.INFO, "I am Groot " + i, null, null));
+        }
+        return events;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
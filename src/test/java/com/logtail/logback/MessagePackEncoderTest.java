@@ -0,0 +1,56 @@
+package com.logtail.logback;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class MessagePackEncoderTest {
+
+    @Test
+    public void testScalars() throws IOException {
+        assertEncoded(bytes(0xc0), null);
+        assertEncoded(bytes(0xc3), true);
+        assertEncoded(bytes(0x07), 7);
+        assertEncoded(bytes(0xff), -1);
+        assertEncoded(bytes(0xcc, 0xc8), 200);
+        assertEncoded(bytes(0xcd, 0x01, 0x2c), 300);
+        assertEncoded(bytes(0xd0, 0x9c), -100);
+        assertEncoded(bytes(0xcf, 0x00, 0x00, 0x01, 0x8b, 0xcf, 0xe5, 0x68, 0x00), 1700000000000L);
+        assertEncoded(bytes(0xcb, 0x3f, 0xf8, 0, 0, 0, 0, 0, 0), 1.5d);
+        assertEncoded(bytes(0xa3, 'a', 'b', 'c'), "abc");
+    }
+
+    @Test
+    public void testContainers() throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("a", 1);
+        map.put("skipped", null);
+        map.put("b", Arrays.asList("x", false));
+
+        assertEncoded(bytes(0x82, 0xa1, 'a', 0x01, 0xa1, 'b', 0x92, 0xa1, 'x', 0xc2), map);
+        assertEncoded(bytes(0x92, 0x01, 0x02), new int[]{ 1, 2 });
+    }
+
+    private static void assertEncoded(byte[] expected, Object value) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MessagePackEncoder encoder = new MessagePackEncoder(os, new ObjectMapper());
+        encoder.writeValue(value);
+        encoder.flush();
+        assertArrayEquals(expected, os.toByteArray());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}